@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika;
+
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares the scalar and the batch evaluation of the activation functions, each with the exact function and with
+ * the lookup tables. The lookup table error of zero disables the tables.
+ *
+ * @author Lukas Molzberger
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ActivationFunctionBenchmark {
+
+    @Param({"RECTIFIED_SCALED_LOGISTIC_SIGMOID", "RECTIFIED_HYPERBOLIC_TANGENT", "LIMITED_RECTIFIED_LINEAR_UNIT"})
+    public String function;
+
+    @Param({"0.0", "0.00001"})
+    public double lookupTableError;
+
+    @Param({"2", "1024"})
+    public int size;
+
+    private ActivationFunction af;
+    private double[] in;
+    private double[] out;
+
+
+    @Setup
+    public void setup() {
+        for(ActivationFunction f: ActivationFunction.PREDEFINED) {
+            if(f.name.equals(function)) af = f;
+        }
+        ActivationFunction.LOOKUP_TABLE_ERROR = lookupTableError;
+
+        Random r = new Random(42);
+        in = new double[size];
+        out = new double[size];
+        for(int i = 0; i < size; i++) {
+            in[i] = (r.nextDouble() * 20.0) - 10.0;
+        }
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        ActivationFunction.LOOKUP_TABLE_ERROR = 0.0;
+    }
+
+
+    @Benchmark
+    public double[] scalar() {
+        for(int i = 0; i < size; i++) {
+            out[i] = af.f(in[i]);
+        }
+        return out;
+    }
+
+
+    @Benchmark
+    public double[] batch() {
+        af.f(in, out, size);
+        return out;
+    }
+}
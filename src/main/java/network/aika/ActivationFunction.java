@@ -1,26 +1,323 @@
 package network.aika;
 
 
-public enum ActivationFunction {
+/**
+ * An activation function maps the net input of a neuron to its activation value. Besides the predefined functions,
+ * custom functions can be registered at the model using {@code Model.registerActivationFunction}. The numeric id of
+ * a function is used to serialize the neurons, so it has to remain stable.
+ *
+ * <p>The properties of a function are used by the bounds computation of the activations: For monotone functions
+ * the bounds of the net input directly map to the bounds of the activation value. For non-monotone piecewise linear
+ * functions the bounds are evaluated at the end points of the interval and at the breakpoints in between. For other
+ * non-monotone functions the methods {@code getMin} and {@code getMax} need to be overridden, otherwise the lower and
+ * upper limit of the function are used as conservative bounds.
+ *
+ * @author Lukas Molzberger
+ */
+public class ActivationFunction {
 
-    RECTIFIED_SCALED_LOGISTIC_SIGMOID(x -> Math.max(0.0, (2.0 * Utils.sigmoid(x)) - 1.0)),
-    RECTIFIED_HYPERBOLIC_TANGENT(x -> Math.max(0.0, Math.tanh(x))),
-    RECTIFIED_LINEAR_UNIT(x -> Math.max(0.0, x)),
-    LIMITED_RECTIFIED_LINEAR_UNIT(x -> Math.max(0.0, Math.min(1.0, x)));
+    public static final ActivationFunction RECTIFIED_SCALED_LOGISTIC_SIGMOID = new ActivationFunction(
+            0,
+            "RECTIFIED_SCALED_LOGISTIC_SIGMOID",
+            x -> Math.max(0.0, (2.0 * Utils.sigmoid(x)) - 1.0),
+            true, 0.0, 1.0, null, 0.1925
+    );
+
+    public static final ActivationFunction RECTIFIED_HYPERBOLIC_TANGENT = new ActivationFunction(
+            1,
+            "RECTIFIED_HYPERBOLIC_TANGENT",
+            x -> Math.max(0.0, Math.tanh(x)),
+            true, 0.0, 1.0, null, 0.7699
+    );
+
+    public static final ActivationFunction RECTIFIED_LINEAR_UNIT = new ActivationFunction(
+            2,
+            "RECTIFIED_LINEAR_UNIT",
+            x -> Math.max(0.0, x),
+            true, 0.0, Double.POSITIVE_INFINITY, new double[] {0.0}, 0.0
+    );
+
+    public static final ActivationFunction LIMITED_RECTIFIED_LINEAR_UNIT = new ActivationFunction(
+            3,
+            "LIMITED_RECTIFIED_LINEAR_UNIT",
+            x -> Math.max(0.0, Math.min(1.0, x)),
+            true, 0.0, 1.0, new double[] {0.0, 1.0}, 0.0
+    );
+
+    public static final ActivationFunction[] PREDEFINED = new ActivationFunction[] {
+            RECTIFIED_SCALED_LOGISTIC_SIGMOID,
+            RECTIFIED_HYPERBOLIC_TANGENT,
+            RECTIFIED_LINEAR_UNIT,
+            LIMITED_RECTIFIED_LINEAR_UNIT
+    };
+
+    /**
+     * The maximum absolute error of the lookup table approximation of the smooth, bounded and monotone functions.
+     * The lookup tables are disabled if the error is zero.
+     */
+    public static double LOOKUP_TABLE_ERROR = 0.0;
+
+    public final int id;
+    public final String name;
 
     Function f;
 
-    ActivationFunction(Function f) {
+    public final boolean monotone;
+    public final double lowerLimit;
+    public final double upperLimit;
+
+    /**
+     * The breakpoints of a continuous piecewise linear function in ascending order or null if the function is not
+     * piecewise linear. The extrema over an interval are attained at its end points or at one of these breakpoints.
+     */
+    public final double[] breakpoints;
+
+    /**
+     * The maximum of the absolute second derivative, used to determine the step size of the lookup table.
+     */
+    private double maxSecondDerivative;
+
+    private volatile LookupTable lookupTable;
+
+
+    /**
+     * Creates an unbounded function without a lookup table.
+     *
+     * @param id The stable id used for the serialization.
+     * @param name
+     * @param f
+     * @param monotone Whether the function is monotonically non-decreasing.
+     */
+    public ActivationFunction(int id, String name, Function f, boolean monotone) {
+        this(id, name, f, monotone, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, null, 0.0);
+    }
+
+
+    /**
+     *
+     * @param id The stable id used for the serialization.
+     * @param name
+     * @param f
+     * @param monotone Whether the function is monotonically non-decreasing.
+     * @param lowerLimit The infimum of the function.
+     * @param upperLimit The supremum of the function.
+     * @param breakpoints The breakpoints of a piecewise linear function or null. Piecewise linear functions are cheap
+     *                    to evaluate and never use a lookup table.
+     * @param maxSecondDerivative The maximum of the absolute second derivative or zero if unknown.
+     */
+    public ActivationFunction(int id, String name, Function f, boolean monotone, double lowerLimit, double upperLimit, double[] breakpoints, double maxSecondDerivative) {
+        this.id = id;
+        this.name = name;
         this.f = f;
+        this.monotone = monotone;
+        this.lowerLimit = lowerLimit;
+        this.upperLimit = upperLimit;
+        this.breakpoints = breakpoints;
+        this.maxSecondDerivative = maxSecondDerivative;
     }
 
+
+    public static ActivationFunction getPredefined(int id) {
+        for(ActivationFunction af: PREDEFINED) {
+            if(af.id == id) return af;
+        }
+        return null;
+    }
+
+
+    /**
+     * Looks up a predefined function by its name, as used by the unversioned serialization format.
+     */
+    public static ActivationFunction getPredefined(String name) {
+        for(ActivationFunction af: PREDEFINED) {
+            if(af.name.equals(name)) return af;
+        }
+        throw new RuntimeException("Unknown activation function " + name + ".");
+    }
+
+
+    public boolean isBounded() {
+        return lowerLimit > Double.NEGATIVE_INFINITY && upperLimit < Double.POSITIVE_INFINITY;
+    }
+
+
     public double f(double x) {
-        return f.f(x);
+        LookupTable lt = getLookupTable();
+        return lt != null ? lt.f(x) : f.f(x);
+    }
+
+
+    /**
+     * Evaluates the activation function for the first {@code n} entries of the input array. The in and out arrays
+     * may be the same. The predefined functions use a specialized loop each, custom functions are evaluated through
+     * their {@code Function}.
+     *
+     * @param in
+     * @param out
+     * @param n
+     */
+    public void f(double[] in, double[] out, int n) {
+        LookupTable lt = getLookupTable();
+        if(lt != null) {
+            lt.f(in, out, n);
+            return;
+        }
+
+        if(this == RECTIFIED_SCALED_LOGISTIC_SIGMOID) {
+            for(int i = 0; i < n; i++) {
+                out[i] = Math.max(0.0, (2.0 * Utils.sigmoid(in[i])) - 1.0);
+            }
+        } else if(this == RECTIFIED_HYPERBOLIC_TANGENT) {
+            for(int i = 0; i < n; i++) {
+                out[i] = Math.max(0.0, Math.tanh(in[i]));
+            }
+        } else if(this == RECTIFIED_LINEAR_UNIT) {
+            for(int i = 0; i < n; i++) {
+                out[i] = Math.max(0.0, in[i]);
+            }
+        } else if(this == LIMITED_RECTIFIED_LINEAR_UNIT) {
+            for(int i = 0; i < n; i++) {
+                out[i] = Math.max(0.0, Math.min(1.0, in[i]));
+            }
+        } else {
+            for(int i = 0; i < n; i++) {
+                out[i] = f.f(in[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the minimum of the function over the interval {@code [lb, ub]}.
+     *
+     * @param lb
+     * @param ub
+     * @return
+     */
+    public double getMin(double lb, double ub) {
+        if(monotone) return f(lb);
+        if(breakpoints != null) return getExtremum(lb, ub, false);
+        return lowerLimit;
     }
 
 
-    interface Function {
+    /**
+     * Returns the maximum of the function over the interval {@code [lb, ub]}.
+     *
+     * @param lb
+     * @param ub
+     * @return
+     */
+    public double getMax(double lb, double ub) {
+        if(monotone) return f(ub);
+        if(breakpoints != null) return getExtremum(lb, ub, true);
+        return upperLimit;
+    }
+
+
+    private double getExtremum(double lb, double ub, boolean max) {
+        double r = max ? Math.max(f.f(lb), f.f(ub)) : Math.min(f.f(lb), f.f(ub));
+        for(double x: breakpoints) {
+            if(x > lb && x < ub) {
+                r = max ? Math.max(r, f.f(x)) : Math.min(r, f.f(x));
+            }
+        }
+        return r;
+    }
+
+
+    public boolean isPiecewiseLinear() {
+        return breakpoints != null;
+    }
+
+
+    private LookupTable getLookupTable() {
+        if(LOOKUP_TABLE_ERROR <= 0.0 || isPiecewiseLinear() || maxSecondDerivative <= 0.0 || !monotone || !isBounded()) {
+            return null;
+        }
+
+        LookupTable lt = lookupTable;
+        if(lt == null || lt.error != LOOKUP_TABLE_ERROR) {
+            lt = new LookupTable(this, LOOKUP_TABLE_ERROR);
+            lookupTable = lt;
+        }
+        return lt;
+    }
+
+
+    public String toString() {
+        return name;
+    }
+
+
+    public interface Function {
         double f(double x);
     }
 
+
+    /**
+     * A linearly interpolated table of function values. Outside of the interval {@code [min, max]} the function
+     * is within the error bound of its lower or upper limit. The step size {@code h} is chosen such that the
+     * interpolation error {@code h^2 / 8 * max|f''|} stays below half of the requested error. Zero is always a
+     * grid point, so that the kink of the rectified functions is represented exactly.
+     */
+    static class LookupTable {
+        final double error;
+        final double lowerLimit;
+        final double upperLimit;
+        final double min;
+        final double max;
+        final double invStep;
+        final double[] values;
+
+
+        LookupTable(ActivationFunction af, double error) {
+            this.error = error;
+            lowerLimit = af.lowerLimit;
+            upperLimit = af.upperLimit;
+
+            double h = Math.sqrt(4.0 * error / af.maxSecondDerivative);
+
+            double m = 1.0;
+            while(af.f.f(-m) - lowerLimit > error * 0.5) {
+                m *= 2.0;
+            }
+            int negSteps = (int) Math.ceil(m / h);
+
+            m = 1.0;
+            while(upperLimit - af.f.f(m) > error * 0.5) {
+                m *= 2.0;
+            }
+            int posSteps = (int) Math.ceil(m / h);
+
+            min = -negSteps * h;
+            max = posSteps * h;
+            invStep = 1.0 / h;
+
+            int size = negSteps + posSteps + 1;
+            values = new double[size + 1];
+            for(int i = 0; i < size; i++) {
+                values[i] = af.f.f((i - negSteps) * h);
+            }
+            values[size] = values[size - 1];
+        }
+
+
+        double f(double x) {
+            if(x <= min) return lowerLimit;
+            if(x >= max) return upperLimit;
+
+            double y = (x - min) * invStep;
+            int i = (int) y;
+            double t = y - i;
+            return values[i] + t * (values[i + 1] - values[i]);
+        }
+
+
+        void f(double[] in, double[] out, int n) {
+            for(int i = 0; i < n; i++) {
+                out[i] = f(in[i]);
+            }
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package network.aika;
 
 import network.aika.lattice.AndNode;
+import network.aika.lattice.LatticeStatistics;
 import network.aika.lattice.Node;
 import network.aika.lattice.OrNode;
 import network.aika.neuron.INeuron;
@@ -36,6 +37,20 @@ public class Converter {
 
     public static int MAX_AND_NODE_SIZE = 6;
 
+    /**
+     * If enabled, the maximum and-node size of each neuron is adjusted whenever the neuron is converted. The size is
+     * increased if too many of the activations created by the or-node turn out to be false positives, as long as
+     * the neuron does not depend on more than {@code MAX_LATTICE_NODES_PER_NEURON} lattice nodes. It is decreased
+     * if hardly any false positives occur. The size of a neuron may be fixed by setting {@code INeuron.maxAndNodeSize}.
+     */
+    public static boolean ADAPTIVE_AND_NODE_SIZE = false;
+    public static int MIN_ADAPTIVE_AND_NODE_SIZE = 2;
+    public static int MAX_ADAPTIVE_AND_NODE_SIZE = 10;
+    public static int MAX_LATTICE_NODES_PER_NEURON = 100;
+    public static long MIN_CANDIDATE_ACTIVATIONS = 100;
+    public static double HIGH_FALSE_POSITIVE_RATE = 0.5;
+    public static double LOW_FALSE_POSITIVE_RATE = 0.05;
+
 
     public static Comparator<Synapse> SYNAPSE_COMP = (s1, s2) -> {
         int r = Boolean.compare(
@@ -53,6 +68,7 @@ public class Converter {
     private Document doc;
     private OrNode outputNode;
     private Collection<Synapse> modifiedSynapses;
+    private int maxAndNodeSize;
 
 
     public static boolean convert(int threadId, Document doc, INeuron neuron, Collection<Synapse> modifiedSynapses) {
@@ -79,6 +95,8 @@ public class Converter {
             return false;
         }
 
+        maxAndNodeSize = chooseMaxAndNodeSize();
+
         List<Synapse> candidates = prepareCandidates();
 
         NodeContext nodeContext = null;
@@ -93,7 +111,7 @@ public class Converter {
             for (Synapse s : candidates) {
                 double v = s.getMaxInputValue();
                 final boolean isOptionalInput = sum + remainingSum - v + neuron.posRecSum + neuron.posPassiveSum + neuron.biasSum > 0.0;
-                final boolean maxAndNodesReached = i >= MAX_AND_NODE_SIZE;
+                final boolean maxAndNodesReached = i >= maxAndNodeSize;
                 if (isOptionalInput || maxAndNodesReached) {
                     break;
                 }
@@ -122,7 +140,7 @@ public class Converter {
 
             outputNode.removeParents(threadId);
 
-            if (noFurtherRefinement || i == MAX_AND_NODE_SIZE) {
+            if (noFurtherRefinement || i == maxAndNodeSize) {
                 outputNode.addInput(nodeContext.getSynapseIds(), threadId, nodeContext.node, true);
             } else {
                 for (Synapse s : candidates) {
@@ -153,13 +171,43 @@ public class Converter {
         return true;
     }
 
+
+    private int chooseMaxAndNodeSize() {
+        if(neuron.maxAndNodeSize != null) {
+            return neuron.maxAndNodeSize;
+        }
+
+        if(!ADAPTIVE_AND_NODE_SIZE) {
+            return MAX_AND_NODE_SIZE;
+        }
+
+        int size = neuron.getMaxAndNodeSize();
+        if(neuron.numberOfCandidateActivations.get() >= MIN_CANDIDATE_ACTIVATIONS) {
+            double falsePositiveRate = neuron.getFalsePositiveRate();
+            if(falsePositiveRate > HIGH_FALSE_POSITIVE_RATE) {
+                if(size < MAX_ADAPTIVE_AND_NODE_SIZE && LatticeStatistics.getNumberOfDependencies(outputNode) < MAX_LATTICE_NODES_PER_NEURON) {
+                    size++;
+                }
+            } else if(falsePositiveRate < LOW_FALSE_POSITIVE_RATE && size > MIN_ADAPTIVE_AND_NODE_SIZE) {
+                size--;
+            }
+
+            // The observations only apply to the previous size.
+            neuron.numberOfCandidateActivations.set(0);
+            neuron.numberOfFalsePositiveActivations.set(0);
+        }
+        neuron.adaptiveMaxAndNodeSize = size;
+        return size;
+    }
+
+
     private List<Synapse> prepareCandidates() {
         Synapse syn = getBestSynapse(neuron.inputSynapses.values());
 
         TreeSet<Integer> alreadyCollected = new TreeSet<>();
         ArrayList<Synapse> selectedCandidates = new ArrayList<>();
         TreeMap<Integer, Synapse> relatedSyns = new TreeMap<>();
-        while(syn != null && selectedCandidates.size() < MAX_AND_NODE_SIZE) {
+        while(syn != null && selectedCandidates.size() < maxAndNodeSize) {
             relatedSyns.remove(syn.id);
             selectedCandidates.add(syn);
             alreadyCollected.add(syn.id);
@@ -258,6 +306,7 @@ public class Converter {
         neuron.posRecSum += sumDelta[RECURRENT][POSITIVE];
         neuron.posPassiveSum += posPassiveSumDelta;
 
+        neuron.weightsVersion++;
         neuron.setModified();
     }
 
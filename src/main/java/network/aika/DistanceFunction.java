@@ -3,23 +3,76 @@ package network.aika;
 
 import network.aika.neuron.activation.Activation;
 
-public enum DistanceFunction {
+/**
+ * A distance function scales the weight of a synapse depending on the positions of the input and the output
+ * activation. Besides the predefined functions, custom functions can be registered at the model using
+ * {@code Model.registerDistanceFunction}. The numeric id of a function is used to serialize the synapses, so it has
+ * to remain stable.
+ *
+ * @author Lukas Molzberger
+ */
+public class DistanceFunction {
 
-    NONE((iAct, oAct) -> 1.0),
-    DEGRADING((iAct, oAct) -> 1.0 / ((double) (1 + Math.abs(oAct.range.begin - iAct.range.begin))));
+    public static final DistanceFunction NONE = new DistanceFunction(
+            0,
+            "NONE",
+            (iAct, oAct) -> 1.0
+    );
+
+    public static final DistanceFunction DEGRADING = new DistanceFunction(
+            1,
+            "DEGRADING",
+            (iAct, oAct) -> 1.0 / ((double) (1 + Math.abs(oAct.range.begin - iAct.range.begin)))
+    );
+
+    public static final DistanceFunction[] PREDEFINED = new DistanceFunction[] {
+            NONE,
+            DEGRADING
+    };
+
+    public final int id;
+    public final String name;
 
     Function f;
 
-    DistanceFunction(Function f) {
+
+    public DistanceFunction(int id, String name, Function f) {
+        this.id = id;
+        this.name = name;
         this.f = f;
     }
 
+
+    public static DistanceFunction getPredefined(int id) {
+        for(DistanceFunction df: PREDEFINED) {
+            if(df.id == id) return df;
+        }
+        return null;
+    }
+
+
+    /**
+     * Looks up a predefined function by its name, as used by the unversioned serialization format.
+     */
+    public static DistanceFunction getPredefined(String name) {
+        for(DistanceFunction df: PREDEFINED) {
+            if(df.name.equals(name)) return df;
+        }
+        throw new RuntimeException("Unknown distance function " + name + ".");
+    }
+
+
     public double f(Activation iAct, Activation oAct) {
         return f.f(iAct, oAct);
     }
 
 
-    interface Function {
+    public String toString() {
+        return name;
+    }
+
+
+    public interface Function {
         double f(Activation iAct, Activation oAct);
     }
 
@@ -20,6 +20,7 @@ package network.aika;
 import network.aika.lattice.Node;
 import network.aika.lattice.NodeActivation;
 import network.aika.neuron.INeuron;
+import network.aika.neuron.Neuron;
 import network.aika.neuron.Synapse;
 import network.aika.neuron.activation.Activation;
 import network.aika.neuron.activation.Activation.Link;
@@ -34,6 +35,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -56,13 +62,35 @@ public class Document implements Comparable<Document> {
     public static int MAX_ROUND = 20;
     public static int ROUND_LIMIT = -1;
 
+    /**
+     * If larger than zero, the values of activations that are part of a recurrent loop are damped as soon as they
+     * start to oscillate between rounds. The new state is then blended with the state of the previous round using
+     * this factor. The fixed point of the rounds is not affected, but oscillating loops can converge instead of
+     * exceeding {@code MAX_ROUND}.
+     */
+    public static double RECURRENT_DAMPING = 0.0;
+
+    /**
+     * The upper bound of an activation is propagated to its outputs as soon as it differs by more than this value
+     * from the upper bound that has been propagated last. Smaller changes are accumulated.
+     */
+    public static double BOUND_PROPAGATION_EPSILON = 0.01;
+
+    /**
+     * If true, the bounds of every activation are maintained as running sums over the contributions of the input
+     * links and only the contributions of the changed input links are recomputed. Otherwise, only the disjunctive
+     * neurons with more than {@code INeuron.SPARSE_FAN_IN_THRESHOLD} input links use running sums. Since the running
+     * sums may deviate slightly from the exact sums, this is disabled by default.
+     */
+    public static boolean INCREMENTAL_BOUNDS = false;
+
     /**
      * Experimental code: not working yet!
      */
     public static boolean INCREMENTAL_MODE = false;
 
     public final int id;
-    private final StringBuilder content;
+    private final Rope content;
 
     public long visitedCounter = 1;
     public int activationIdCounter = 0;
@@ -70,6 +98,13 @@ public class Document implements Comparable<Document> {
     public int searchNodeIdCounter = 0;
     public int searchStepCounter = 0;
 
+    /**
+     * Is incremented whenever the model is committed, since the synapses of the existing activation links may have
+     * changed. Cached structures that depend on the links, such as the predecessor sets of the activations, are only
+     * valid for a given link version. Added or changed links only invalidate the affected activations.
+     */
+    public long linkVersion = 0;
+
     public Model model;
     public int threadId;
 
@@ -83,7 +118,6 @@ public class Document implements Comparable<Document> {
     public TreeSet<INeuron> finallyActivatedNeurons = new TreeSet<>();
     public TreeSet<Activation> inputNeuronActivations = new TreeSet<>();
     public TreeMap<INeuron, Set<Synapse>> modifiedWeights = new TreeMap<>();
-    public TreeMap<Integer, Double> searchNodeWeights = new TreeMap<>();
 
     public SupervisedTraining supervisedTraining = new SupervisedTraining(this);
 
@@ -105,6 +139,18 @@ public class Document implements Comparable<Document> {
 
     public TreeMap<Integer, Activation> activationsById = new TreeMap<>();
 
+    /**
+     * Memo table of the passive input values: output activation id -> synapse -> value.
+     */
+    private TreeMap<Integer, TreeMap<Synapse, Double>> passiveInputValues = new TreeMap<>();
+
+
+    /**
+     * Scratch buffer for the batch evaluation of the activation functions. The value and bound computations evaluate
+     * two inputs at once without allocating a temporary array.
+     */
+    public final double[] activationFunctionBuffer = new double[2];
+
 
     private int lastProcessedActivationId = -1;
     private int lastLinkedActivationId = -1;
@@ -127,7 +173,16 @@ public class Document implements Comparable<Document> {
 
 
     public SearchNode selectedSearchNode;
+
+    /**
+     * Is set if the search for the best interpretation exceeded its timeout and the remaining decisions were made
+     * greedily. The final interpretation is still consistent, but not necessarily the best one.
+     */
+    public boolean approximate = false;
     public ArrayList<Candidate> candidates = new ArrayList<>();
+    public SearchProfile searchProfile;
+    public SoftMax softMax;
+    public PriorityQueue<Interpretation> interpretations;
 
     public long createV;
 
@@ -141,9 +196,18 @@ public class Document implements Comparable<Document> {
     };
 
 
-    public Document(int id, String content, Model model, int threadId) {
+    /**
+     * The text of the document is not copied, so the given char sequence must not be modified while the document
+     * is in use. It may for instance be the char view of a memory mapped file.
+     *
+     * @param id
+     * @param content
+     * @param model
+     * @param threadId
+     */
+    public Document(int id, CharSequence content, Model model, int threadId) {
         this.id = id;
-        this.content = new StringBuilder(content);
+        this.content = new Rope(content);
 
         this.model = model;
         this.threadId = threadId;
@@ -151,7 +215,13 @@ public class Document implements Comparable<Document> {
     }
 
 
-    public void append(String txt) {
+    /**
+     * Appends the given text to the document. Like the initial content, the text is not copied and must therefore not
+     * be modified afterwards.
+     *
+     * @param txt
+     */
+    public void append(CharSequence txt) {
         content.append(txt);
     }
 
@@ -177,7 +247,18 @@ public class Document implements Comparable<Document> {
 
 
     public String getText(Range r) {
-        return content.substring(
+        return getTextSequence(r).toString();
+    }
+
+
+    /**
+     * Returns a view of the text within the given range, without copying the characters.
+     *
+     * @param r
+     * @return
+     */
+    public CharSequence getTextSequence(Range r) {
+        return content.subSequence(
                 Math.max(0, Math.min(r.begin, length())),
                 Math.max(0, Math.min(r.end, length()))
         );
@@ -257,8 +338,13 @@ public class Document implements Comparable<Document> {
     }
 
 
+    /**
+     * Orders the candidates topologically, such that every candidate follows the candidates it depends on through
+     * non recurrent input links. Among the candidates whose dependencies are satisfied, the one with the lowest
+     * {@code Candidate.compareTo} order is always chosen next.
+     */
     public void generateCandidates() {
-        TreeSet<Candidate> tmp = new TreeSet<>();
+        ArrayList<Candidate> tmp = new ArrayList<>();
         int i = 0;
 
         if(!INCREMENTAL_MODE) {
@@ -279,28 +365,127 @@ public class Document implements Comparable<Document> {
             act.markedHasCandidate = v;
         }
 
-        while (!tmp.isEmpty()) {
-            int oldSize = tmp.size();
-            for (Candidate c : tmp) {
-                if (c.checkDependenciesSatisfied(v)) {
-                    tmp.remove(c);
-                    c.id = candidates.size();
-                    candidates.add(c);
+        int[] numberOfDependencies = new int[tmp.size()];
+        boolean[] isDependency = new boolean[tmp.size()];
+        TreeSet<Candidate> ready = new TreeSet<>();
+        for(Candidate c: tmp) {
+            isDependency[c.id] = c.activation.markedHasCandidate != v;
+            numberOfDependencies[c.id] = (int) c.activation.getInputLinks(false, false)
+                    .filter(l -> l.input.markedHasCandidate != v && isCandidateDependency(l))
+                    .count();
+
+            if(numberOfDependencies[c.id] == 0) {
+                ready.add(c);
+            }
+        }
+
+        int numberOfOrderedCandidates = 0;
+        while (!ready.isEmpty()) {
+            Candidate c = ready.pollFirst();
+            boolean dependency = isDependency[c.id];
 
-                    c.activation.markedHasCandidate = v;
-                    break;
+            c.id = candidates.size();
+            candidates.add(c);
+            numberOfOrderedCandidates++;
+
+            c.activation.markedHasCandidate = v;
+
+            if(!dependency) continue;
+
+            c.activation.getOutputLinks(false).forEach(l -> {
+                Candidate oc = l.output.candidate;
+                if(oc != null && l.output.markedHasCandidate != v && oc.id < tmp.size() && tmp.get(oc.id) == oc && isCandidateDependency(l)) {
+                    if(--numberOfDependencies[oc.id] == 0) {
+                        ready.add(oc);
+                    }
                 }
-            }
+            });
+        }
+
+        if(numberOfOrderedCandidates < tmp.size()) {
+            log.error("Cycle detected in the activations that is not marked recurrent.");
 
-            if(tmp.size() == oldSize) {
-                log.error("Cycle detected in the activations that is not marked recurrent.");
+            throw new RuntimeException("Cycle detected in the activations that is not marked recurrent.");
+        }
+    }
 
-                throw new RuntimeException("Cycle detected in the activations that is not marked recurrent.");
+
+    /**
+     * Determines the strongly connected components of the activation links using Tarjan's algorithm. Every
+     * activation that is part of a component with more than one activation, and therefore of a recurrent loop, is
+     * assigned the id of its component.
+     */
+    public void markRecurrentComponents() {
+        int n = activationIdCounter;
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+
+        ArrayDeque<Activation> stack = new ArrayDeque<>();
+        ArrayDeque<Activation> callStack = new ArrayDeque<>();
+        ArrayDeque<Iterator<Link>> iterators = new ArrayDeque<>();
+        int counter = 0;
+        int componentId = 0;
+
+        for(Activation root: activationsById.values()) {
+            if(index[root.id] >= 0) continue;
+
+            index[root.id] = lowLink[root.id] = counter++;
+            stack.push(root);
+            onStack[root.id] = true;
+            callStack.push(root);
+            iterators.push(root.getInputLinks(false, false).iterator());
+
+            while(!callStack.isEmpty()) {
+                Activation act = callStack.peek();
+                Iterator<Link> it = iterators.peek();
+
+                if(it.hasNext()) {
+                    Activation iAct = it.next().input;
+                    if(index[iAct.id] < 0) {
+                        index[iAct.id] = lowLink[iAct.id] = counter++;
+                        stack.push(iAct);
+                        onStack[iAct.id] = true;
+                        callStack.push(iAct);
+                        iterators.push(iAct.getInputLinks(false, false).iterator());
+                    } else if(onStack[iAct.id]) {
+                        lowLink[act.id] = Math.min(lowLink[act.id], index[iAct.id]);
+                    }
+                    continue;
+                }
+
+                callStack.pop();
+                iterators.pop();
+                if(!callStack.isEmpty()) {
+                    Activation parent = callStack.peek();
+                    lowLink[parent.id] = Math.min(lowLink[parent.id], lowLink[act.id]);
+                }
+
+                if(lowLink[act.id] == index[act.id]) {
+                    ArrayList<Activation> component = new ArrayList<>();
+                    Activation cAct;
+                    do {
+                        cAct = stack.pop();
+                        onStack[cAct.id] = false;
+                        component.add(cAct);
+                    } while(cAct != act);
+
+                    int cId = component.size() > 1 ? componentId++ : -1;
+                    for(Activation ca: component) {
+                        ca.recurrentComponent = cId;
+                    }
+                }
             }
         }
     }
 
 
+    private static boolean isCandidateDependency(Link l) {
+        return !l.synapse.key.isRecurrent && l.input.upperBound > 0.0;
+    }
+
+
     /**
      * The method <code>process</code> needs to be called after all the input activations have been added to the
      * network. It performs the search for the best interpretation.
@@ -311,17 +496,41 @@ public class Document implements Comparable<Document> {
 
 
     public void process(Long timeoutInMilliSeconds) throws SearchNode.TimeoutException {
+        process(timeoutInMilliSeconds, false);
+    }
+
+
+    /**
+     * Performs the search for the best interpretation within the given time budget.
+     *
+     * @param timeoutInMilliSeconds
+     * @param degradeOnTimeout If set, exceeding the timeout does not throw a {@code TimeoutException}. Instead the
+     *                         remaining search is completed greedily and the document is flagged as approximate.
+     */
+    public void process(Long timeoutInMilliSeconds, boolean degradeOnTimeout) throws SearchNode.TimeoutException {
         linker.lateLinking();
 
+        if(RECURRENT_DAMPING > 0.0) {
+            markRecurrentComponents();
+        }
+
         inputNeuronActivations.forEach(act -> vQueue.propagateActivationValue(0, act));
 
         generateCandidates();
 
+        if(SearchNode.ENABLE_PROFILING) {
+            searchProfile = new SearchProfile(this);
+        }
+
+        softMax = SearchNode.COMPUTE_SOFT_MAX ? new SoftMax(candidates.size()) : null;
+        interpretations = SearchNode.NUMBER_OF_INTERPRETATIONS > 1 ? new PriorityQueue<>() : null;
+
         if(selectedSearchNode == null || !INCREMENTAL_MODE) {
             selectedSearchNode = new SearchNode(this, null, null, 0);
         }
 
-        SearchNode.search(this, selectedSearchNode, visitedCounter++, timeoutInMilliSeconds);
+        approximate = false;
+        SearchNode.search(this, selectedSearchNode, visitedCounter++, timeoutInMilliSeconds, degradeOnTimeout);
 
         for(Activation act: activationsByRangeBegin.values()) {
             if(act.isFinalActivation()) {
@@ -329,41 +538,24 @@ public class Document implements Comparable<Document> {
             }
         }
 
-        if(SearchNode.COMPUTE_SOFT_MAX) {
-            computeSoftMax();
+        if(softMax != null) {
+            softMax.computeAverages(candidates);
         }
     }
 
 
-    private void computeSoftMax() {
-        double norm = 0.0;
-        for(Double w: searchNodeWeights.values()) {
-            norm += Math.exp(w);
+    /**
+     * Returns the best interpretations found during the search, ordered by decreasing weight. At most
+     * {@code SearchNode.NUMBER_OF_INTERPRETATIONS} interpretations are returned.
+     */
+    public List<Interpretation> getInterpretations() {
+        if(interpretations == null) {
+            return Collections.emptyList();
         }
 
-        for(Activation act: activationsByRangeBegin.values()) {
-            if(act.searchStates != null) {
-                double avgValue = 0.0;
-                double avgPosValue = 0.0;
-                double avgP = 0.0;
-                double avgNet = 0.0;
-                double avgPosNet = 0.0;
-
-                for (Map.Entry<Integer, Double> me : searchNodeWeights.entrySet()) {
-                    double p = Math.exp(me.getValue()) / norm;
-
-                    Activation.State s = act.searchStates.get(me.getKey());
-
-                    avgValue += p * s.value;
-                    avgPosValue += p * s.posValue;
-                    avgP += p * s.p;
-                    avgNet += p * s.net;
-                    avgPosNet += p * s.posNet;
-                }
-
-                act.avgState = new Activation.State(avgValue, avgPosValue, avgP, avgNet, avgPosNet, 0, 0.0);
-            }
-        }
+        ArrayList<Interpretation> results = new ArrayList<>(interpretations);
+        results.sort(Collections.reverseOrder());
+        return results;
     }
 
 
@@ -391,6 +583,132 @@ public class Document implements Comparable<Document> {
     public void commit() {
         modifiedWeights.forEach((n, inputSyns) -> Converter.convert(threadId, this, n, inputSyns));
         modifiedWeights.clear();
+        linkVersion++;
+    }
+
+
+    /**
+     * Updates the model after the training step like {@code commit()}, but converts the modified neurons
+     * concurrently. The conversions of different neurons are independent of each other, except for the logic
+     * nodes they share. New and-nodes are created while holding the write locks of all their parents, which are
+     * acquired in the order of the provider ids. Since the nodes are created in a nondeterministic order, their ids
+     * may differ between runs.
+     *
+     * <p>The conversion does not use the thread state of the logic nodes, hence the number of workers is independent
+     * of {@code Model.numberOfThreads}. The workers run on the conversion executor of the model, which is shared
+     * by all documents.
+     *
+     * @param numberOfThreads
+     * @return The conversion time in nanoseconds for each of the modified neurons.
+     */
+    public Map<INeuron, Long> commit(int numberOfThreads) {
+        Map<INeuron, Long> conversionTimes = new ConcurrentHashMap<>();
+        java.util.Queue<Map.Entry<INeuron, Set<Synapse>>> queue = new ConcurrentLinkedQueue<>(modifiedWeights.entrySet());
+
+        Runnable worker = () -> {
+            Map.Entry<INeuron, Set<Synapse>> me;
+            while ((me = queue.poll()) != null) {
+                long startTime = System.nanoTime();
+                Converter.convert(threadId, this, me.getKey(), me.getValue());
+                conversionTimes.put(me.getKey(), System.nanoTime() - startTime);
+            }
+        };
+
+        int numberOfWorkers = Math.min(numberOfThreads, queue.size());
+        if (numberOfWorkers <= 1) {
+            worker.run();
+        } else {
+            ExecutorService executor = model.getConversionExecutor();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numberOfWorkers; i++) {
+                futures.add(executor.submit(worker));
+            }
+
+            try {
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        modifiedWeights.clear();
+        linkVersion++;
+
+        return new TreeMap<>(conversionTimes);
+    }
+
+
+    /**
+     * Adds all the input activations of the batch to this document. The inputs are registered in the order of
+     * their ranges and propagated together at the end, instead of draining the queues after every single input.
+     *
+     * @param batch
+     * @return The input activations in the order in which they were added to the batch.
+     */
+    public List<Activation> addInputs(InputBatch batch) {
+        int n = batch.inputs.size();
+        Integer[] order = new Integer[n];
+        for(int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> {
+            int r = Range.compare(batch.inputs.get(i1).range, batch.inputs.get(i2).range);
+            if(r != 0) return r;
+            return Integer.compare(batch.neurons.get(i1).id, batch.neurons.get(i2).id);
+        });
+
+        Activation[] results = new Activation[n];
+        for(int i: order) {
+            results[i] = batch.neurons.get(i).get(this).addInput(this, batch.inputs.get(i), false);
+        }
+
+        propagate();
+
+        return Arrays.asList(results);
+    }
+
+
+    public static class InputBatch {
+        final List<Neuron> neurons = new ArrayList<>();
+        final List<Activation.Builder> inputs = new ArrayList<>();
+
+
+        public InputBatch add(Neuron n, int begin, int end) {
+            return add(n, new Activation.Builder().setRange(begin, end));
+        }
+
+
+        public InputBatch add(Neuron n, Activation.Builder input) {
+            neurons.add(n);
+            inputs.add(input);
+            return this;
+        }
+    }
+
+
+    /**
+     * Returns the value of the passive input function for the given synapse and output activation. The values of
+     * deterministic functions are computed only once per document.
+     *
+     * @param s
+     * @param act
+     * @param f
+     * @return
+     */
+    public double getPassiveInputValue(Synapse s, Activation act, PassiveInputFunction f) {
+        if(!f.isDeterministic()) {
+            return f.getActivationValue(s, act);
+        }
+
+        TreeMap<Synapse, Double> values = passiveInputValues.computeIfAbsent(act.id, id -> new TreeMap<>(Synapse.INPUT_SYNAPSE_COMP));
+        Double v = values.get(s);
+        if(v == null) {
+            v = f.getActivationValue(s, act);
+            values.put(s, v);
+        }
+        return v;
     }
 
 
@@ -402,6 +720,7 @@ public class Document implements Comparable<Document> {
         activatedNodes.forEach(n -> n.clearActivations(this));
 
         activationsById.clear();
+        passiveInputValues.clear();
         addedNodeActivations.clear();
         activatedNeurons.clear();
         activatedNodes.clear();
@@ -427,19 +746,28 @@ public class Document implements Comparable<Document> {
             });
         }
 
-        model.docs[threadId] = null;
+        synchronized (model.docs) {
+            model.docs[threadId] = null;
+        }
     }
 
 
+    /**
+     * Generates the output text of the final activations. The output is spliced into a separate rope that shares the
+     * pieces of the document text, so the content of the document itself remains unchanged.
+     *
+     * @return
+     */
     public String generateOutputText() {
         int oldLength = length();
+        Rope output = content.subSequence(0, oldLength);
         for(Activation act: activationsByRangeBegin.values()) {
             if(act.getINeuron().outputText != null && act.isFinalActivation()) {
-                content.replace(act.range.begin, act.range.end, act.getINeuron().outputText);
+                output.replace(act.range.begin, act.range.end, act.getINeuron().outputText);
             }
         }
 
-        return content.substring(oldLength, length());
+        return output.subSequence(oldLength, output.length()).toString();
     }
 
 
@@ -543,6 +871,7 @@ public class Document implements Comparable<Document> {
 
 
         public void add(Link l) {
+            l.output.addChangedInputLink(l);
             if(!l.synapse.key.isRecurrent) {
                 add(l.output);
             }
@@ -613,10 +942,23 @@ public class Document implements Comparable<Document> {
 
 
         public double process(SearchNode sn) {
+            Activation act = sn.getParent() != null && sn.getParent().candidate != null ? sn.getParent().candidate.activation : null;
+            return process(act, sn.modifiedActs);
+        }
+
+
+        /**
+         * Propagates the decision of the given activation and records the state changes in {@code changes}.
+         *
+         * @param decidedAct The activation whose decision has changed or null.
+         * @param changes
+         * @return The weight delta.
+         */
+        public double process(Activation decidedAct, Map<Activation, Activation.StateChange> changes) {
             long v = visitedCounter++;
 
-            if(sn.getParent() != null && sn.getParent().candidate != null) {
-                add(sn.getParent().candidate.activation);
+            if(decidedAct != null) {
+                add(decidedAct);
             }
 
             double delta = 0.0;
@@ -626,7 +968,7 @@ public class Document implements Comparable<Document> {
                     Activation act = q.pollFirst();
                     act.rounds.setQueued(round, false);
 
-                    delta += act.process(sn, round, v);
+                    delta += act.process(changes, round, v);
                 }
             }
             return delta;
@@ -19,6 +19,7 @@ package network.aika;
 
 import network.aika.lattice.InputNode;
 import network.aika.lattice.Node;
+import network.aika.lattice.PatternKey;
 import network.aika.neuron.INeuron;
 import network.aika.neuron.Neuron;
 import network.aika.Provider.SuspensionMode;
@@ -27,6 +28,8 @@ import network.aika.neuron.activation.SearchNode;
 
 import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -67,11 +70,24 @@ public class Model {
 
     public Map<Integer, PassiveInputFunction> passiveActivationFunctions = new TreeMap<>();
 
+    // Intern table of the patterns of the and-nodes in memory, mapped to their provider ids. Stored and-nodes are
+    // added when they are loaded and removed when they are suspended.
+    public Map<PatternKey, Integer> patterns = new TreeMap<>();
+
+    public Map<Integer, ActivationFunction> activationFunctions = new TreeMap<>();
+    public Map<Integer, DistanceFunction> distanceFunctions = new TreeMap<>();
+
     public int defaultThreadId = 0;
 
 
     public static AtomicLong visitedCounter = new AtomicLong(1);
 
+    // The reference counts of the logic nodes are updated using visited marks, which are stored at the nodes.
+    // Neurons that are converted concurrently therefore have to update them one at a time.
+    public final Object neuronRefsLock = new Object();
+
+    private ExecutorService conversionExecutor;
+
 
     /**
      * Creates a model with a single thread.
@@ -88,6 +104,13 @@ public class Model {
         lastCleanup = new int[numberOfThreads];
         docs = new Document[numberOfThreads];
         suspensionHook = sh;
+
+        for(ActivationFunction af: ActivationFunction.PREDEFINED) {
+            registerActivationFunction(af);
+        }
+        for(DistanceFunction df: DistanceFunction.PREDEFINED) {
+            registerDistanceFunction(df);
+        }
     }
 
 
@@ -177,25 +200,41 @@ public class Model {
     }
 
 
-    public Document createDocument(String txt) {
+    public Document createDocument(CharSequence txt) {
         return createDocument(txt, 0);
     }
 
 
-    public Document createDocument(String txt, int threadId) {
+    public Document createDocument(CharSequence txt, int threadId) {
         Document doc = new Document(docIdCounter.addAndGet(1), txt, this, threadId);
 
         if (txt != null) {
-            if (docs[threadId] != null) {
-                throw new RuntimeException("Two documents are using the same thread. Call clearActivations() first, before processing the next document.");
+            synchronized (docs) {
+                if (docs[threadId] != null) {
+                    throw new RuntimeException("Two documents are using the same thread. Call clearActivations() first, before processing the next document.");
+                }
+                docs[threadId] = doc;
             }
-            docs[threadId] = doc;
         }
 
         return doc;
     }
 
 
+    /**
+     * Returns the provider with the given id, if it is still referenced.
+     *
+     * @param id
+     * @return
+     */
+    public Provider<? extends AbstractNode> lookupProvider(int id) {
+        synchronized (providers) {
+            WeakReference<Provider<? extends AbstractNode>> wr = providers.get(id);
+            return wr != null ? wr.get() : null;
+        }
+    }
+
+
     public <P extends Provider<? extends Node>> P lookupNodeProvider(int id) {
         synchronized (providers) {
             WeakReference<Provider<? extends AbstractNode>> wr = providers.get(id);
@@ -227,6 +266,64 @@ public class Model {
     }
 
 
+    /**
+     * Registers a custom activation function. The id of the function is used to serialize the neurons and therefore
+     * needs to be unique within the model.
+     *
+     * @param af
+     */
+    public void registerActivationFunction(ActivationFunction af) {
+        synchronized (activationFunctions) {
+            ActivationFunction existing = activationFunctions.get(af.id);
+            if(existing != null && existing != af) {
+                throw new RuntimeException("The activation function id " + af.id + " is already used by " + existing.name + ".");
+            }
+            activationFunctions.put(af.id, af);
+        }
+    }
+
+
+    public ActivationFunction getActivationFunction(int id) {
+        ActivationFunction af;
+        synchronized (activationFunctions) {
+            af = activationFunctions.get(id);
+        }
+        if(af == null) {
+            throw new RuntimeException("Unknown activation function id " + id + ". Custom functions need to be registered before the model is loaded.");
+        }
+        return af;
+    }
+
+
+    /**
+     * Registers a custom distance function. The id of the function is used to serialize the synapses and therefore
+     * needs to be unique within the model.
+     *
+     * @param df
+     */
+    public void registerDistanceFunction(DistanceFunction df) {
+        synchronized (distanceFunctions) {
+            DistanceFunction existing = distanceFunctions.get(df.id);
+            if(existing != null && existing != df) {
+                throw new RuntimeException("The distance function id " + df.id + " is already used by " + existing.name + ".");
+            }
+            distanceFunctions.put(df.id, df);
+        }
+    }
+
+
+    public DistanceFunction getDistanceFunction(int id) {
+        DistanceFunction df;
+        synchronized (distanceFunctions) {
+            df = distanceFunctions.get(id);
+        }
+        if(df == null) {
+            throw new RuntimeException("Unknown distance function id " + id + ". Custom functions need to be registered before the model is loaded.");
+        }
+        return df;
+    }
+
+
     public void register(Provider p) {
         synchronized (activeProviders) {
             activeProviders.put(p.id, p);
@@ -259,10 +356,31 @@ public class Model {
     }
 
 
+    /**
+     * Returns the executor that runs the workers of {@code Document.commit(int)}. It is created by the first
+     * parallel commit and shared by all documents. Its threads are daemon threads, which are released after being
+     * idle for a minute.
+     *
+     * @return
+     */
+    public synchronized ExecutorService getConversionExecutor() {
+        if(conversionExecutor == null) {
+            conversionExecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "neuron-conversion");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return conversionExecutor;
+    }
+
+
     public int getOldestDocIdInProcessing() {
         int oldestDocId = Integer.MAX_VALUE;
-        for(Document doc: docs) {
-            if(doc != null) oldestDocId = Math.min(oldestDocId, doc.id);
+        synchronized (docs) {
+            for (Document doc : docs) {
+                if (doc != null) oldestDocId = Math.min(oldestDocId, doc.id);
+            }
         }
         return oldestDocId;
     }
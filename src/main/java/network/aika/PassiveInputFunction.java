@@ -6,4 +6,16 @@ import network.aika.neuron.activation.Activation;
 public interface PassiveInputFunction {
 
     double getActivationValue(Synapse s, Activation outputActivation);
+
+
+    /**
+     * Deterministic functions are evaluated only once per synapse and output activation within a document. The
+     * result is then taken from {@code Document.getPassiveInputValue}. Functions that may return a different value
+     * on every call need to override this method.
+     *
+     * @return
+     */
+    default boolean isDeterministic() {
+        return true;
+    }
 }
@@ -118,6 +118,15 @@ public class Provider<T extends AbstractNode> implements Comparable<Provider<?>>
     }
 
 
+    /**
+     * Writes the reference to this provider. If the output implements {@code IdMapping}, the mapped id is written
+     * instead of the id of this provider.
+     */
+    public void writeId(DataOutput out) throws IOException {
+        out.writeInt(out instanceof IdMapping ? ((IdMapping) out).getId(id) : id);
+    }
+
+
     private void reactivate() {
         assert model.suspensionHook != null;
 
@@ -159,4 +168,13 @@ public class Provider<T extends AbstractNode> implements Comparable<Provider<?>>
         else if (id > n.id) return 1;
         else return 0;
     }
+
+
+    /**
+     * Translates the provider ids while the nodes are serialized into another storage.
+     */
+    public interface IdMapping {
+
+        int getId(int id);
+    }
 }
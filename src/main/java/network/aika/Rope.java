@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@code Rope} represents the text of a document as a sequence of pieces, each of which refers to a range of an
+ * arbitrary {@code CharSequence}. The input text of a document therefore does not need to be copied, it may for
+ * instance be the char view of a memory mapped file. Appending or replacing text only adds or splits pieces and the
+ * sub sequences are views, which are only materialized by {@code toString()}.
+ *
+ * <p>The rope keeps references to the given char sequences. They must therefore not be modified as long as the rope
+ * or one of its sub sequences is in use. A mutable sequence like a {@code StringBuilder} has to be copied by the
+ * caller.
+ *
+ * @author Lukas Molzberger
+ */
+public class Rope implements CharSequence {
+
+    private List<Piece> pieces = new ArrayList<>();
+    private int[] offsets = new int[8];
+    private int length;
+
+    private int lastPiece;
+
+
+    public Rope() {
+    }
+
+
+    public Rope(CharSequence txt) {
+        append(txt);
+    }
+
+
+    private Rope(List<Piece> pieces) {
+        this.pieces = pieces;
+        updateOffsets(0);
+    }
+
+
+    /**
+     * Recomputes the offsets of the pieces starting with the piece {@code from}. The offsets of the preceding pieces
+     * remain valid.
+     */
+    private void updateOffsets(int from) {
+        ensureCapacity(pieces.size() + 1);
+
+        int pos = offsets[from];
+        for(int i = from; i < pieces.size(); i++) {
+            offsets[i] = pos;
+            pos += pieces.get(i).length();
+        }
+        offsets[pieces.size()] = pos;
+        length = pos;
+        lastPiece = 0;
+    }
+
+
+    private void ensureCapacity(int size) {
+        if(offsets.length < size) {
+            offsets = Arrays.copyOf(offsets, Math.max(size, 2 * offsets.length));
+        }
+    }
+
+
+    /**
+     * Appends the given text in constant amortized time. The text is not copied.
+     *
+     * @param txt
+     */
+    public void append(CharSequence txt) {
+        if(txt == null || txt.length() == 0) return;
+
+        pieces.add(new Piece(txt, 0, txt.length()));
+        ensureCapacity(pieces.size() + 1);
+        length += txt.length();
+        offsets[pieces.size()] = length;
+    }
+
+
+    /**
+     * Replaces the characters between {@code begin} and {@code end} with the given text. Like
+     * {@code StringBuilder.replace}, an end beyond the length of the text is clamped.
+     *
+     * @param begin
+     * @param end
+     * @param txt
+     */
+    public void replace(int begin, int end, CharSequence txt) {
+        end = Math.min(end, length);
+        if(begin < 0 || begin > end) {
+            throw new IndexOutOfBoundsException("begin " + begin + ", end " + end + ", length " + length);
+        }
+
+        if(begin == length) {
+            append(txt);
+            return;
+        }
+
+        int first = findPiece(begin);
+        int last = end < length ? findPiece(end) : pieces.size() - 1;
+
+        List<Piece> result = new ArrayList<>(3);
+        collect(offsets[first], begin, result);
+        if(txt != null && txt.length() > 0) {
+            result.add(new Piece(txt, 0, txt.length()));
+        }
+        collect(end, offsets[last + 1], result);
+
+        List<Piece> replaced = pieces.subList(first, last + 1);
+        replaced.clear();
+        replaced.addAll(result);
+        updateOffsets(first);
+    }
+
+
+    private void collect(int begin, int end, List<Piece> result) {
+        if(begin >= end) return;
+
+        for(int i = findPiece(begin); i < pieces.size() && offsets[i] < end; i++) {
+            Piece p = pieces.get(i);
+            int b = Math.max(begin, offsets[i]) - offsets[i];
+            int e = Math.min(end, offsets[i + 1]) - offsets[i];
+            result.add(new Piece(p.txt, p.begin + b, p.begin + e));
+        }
+    }
+
+
+    private int findPiece(int pos) {
+        int i = lastPiece;
+        if(i < pieces.size() && offsets[i] <= pos && pos < offsets[i + 1]) {
+            return i;
+        }
+
+        int low = 0;
+        int high = pieces.size() - 1;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(offsets[mid] <= pos) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        lastPiece = low;
+        return low;
+    }
+
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+
+        int i = findPiece(index);
+        Piece p = pieces.get(i);
+        return p.txt.charAt(p.begin + index - offsets[i]);
+    }
+
+
+    /**
+     * Returns a view of the given range. The characters are not copied.
+     */
+    @Override
+    public Rope subSequence(int begin, int end) {
+        if(begin < 0 || begin > end || end > length) {
+            throw new IndexOutOfBoundsException("begin " + begin + ", end " + end + ", length " + length);
+        }
+
+        List<Piece> result = new ArrayList<>();
+        collect(begin, end, result);
+        return new Rope(result);
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length);
+        for(Piece p: pieces) {
+            sb.append(p.txt, p.begin, p.end);
+        }
+        return sb.toString();
+    }
+
+
+    private static class Piece {
+        final CharSequence txt;
+        final int begin;
+        final int end;
+
+        Piece(CharSequence txt, int begin, int end) {
+            this.txt = txt;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        int length() {
+            return end - begin;
+        }
+    }
+}
@@ -36,4 +36,11 @@ public interface SuspensionHook {
     byte[] retrieve(int id);
 
     Iterable<Integer> getAllNodeIds();
+
+    /**
+     * Removes a logic node that is no longer needed from the storage.
+     *
+     * @param id
+     */
+    default void remove(int id) {}
 }
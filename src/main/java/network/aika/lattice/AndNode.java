@@ -47,6 +47,12 @@ public class AndNode extends Node<AndNode, AndActivation> {
 
     public SortedMap<Refinement, RefValue> parents;
 
+    // The number of parent refinements that have been registered after the creation of this node, since they lead
+    // to the same pattern.
+    public int numberOfAliases;
+
+    private PatternKey patternKey;
+
     public AndNode() {
         parents = new TreeMap<>();
     }
@@ -90,48 +96,35 @@ public class AndNode extends Node<AndNode, AndActivation> {
 
     @Override
     void apply(AndActivation act) {
+        act.isPropagated = true;
+
         if (andChildren != null) {
+            lock.acquireReadLock();
+            TreeSet<Provider<InputNode>> childInputs = new TreeSet<>();
+            for (Refinement ref : andChildren.keySet()) {
+                childInputs.add(ref.input);
+            }
+            lock.releaseReadLock();
+
             for (Link fl : act.inputs) {
                 if(fl == null) continue;
 
-                InputActivation refAct = fl.refAct;
-                Refinement ref = fl.ref;
-                RefValue rv = fl.rv;
                 NodeActivation<?> pAct = fl.input;
 
-                for (Link sl : pAct.outputsToAndNode.values()) {
-                    InputActivation secondRefAct = sl.refAct;
-                    Refinement secondRef = sl.ref;
-                    RefValue secondRv = sl.rv;
-                    NodeActivation secondAct = sl.output;
-                    if (act != secondAct) {
-                        Relation[] relations = new Relation[secondRef.relations.length() + 1];
-                        for(int i = 0; i < secondRef.relations.length(); i++) {
-                            relations[rv.offsets[i]] = secondRef.relations.get(i);
+                // Only the siblings whose refinement input occurs in a refinement of a child can lead to a new
+                // activation. The join is driven by the smaller side, either by scanning the siblings or by looking
+                // up the siblings of each child refinement input.
+                if (childInputs.size() < pAct.outputsToAndNode.size()) {
+                    for (Provider<InputNode> in : childInputs) {
+                        for (Link sl : getSiblings(pAct, in).values()) {
+                            join(act, fl, sl);
                         }
-
-                        lock.acquireReadLock();
-                        for(Map.Entry<Refinement, RefValue> me: andChildren.subMap(
-                                new Refinement(RelationsMap.MIN, secondRef.input),
-                                new Refinement(RelationsMap.MAX, secondRef.input)).entrySet()) {
-                            Refinement nRef = me.getKey();
-                            RefValue nRv = me.getValue();
-                            if(nRef.contains(secondRef, rv)) {
-                                AndActivation nlAct = new AndActivation(act.doc.logicNodeActivationIdCounter++, act.doc, nRv.child.get(act.doc));
-                                nlAct.link(nRef, nRv, secondRefAct, act);
-                                nlAct.node.addActivation(nlAct);
-
-                                for(Map.Entry<Refinement, RefValue> mea: nlAct.node.parents.entrySet()) {
-                                    Refinement secondNRef = mea.getKey();
-                                    RefValue secondNRv = mea.getValue();
-                                    if(secondNRv.parent.get(act.doc) == secondAct.node && secondNRef.contains(ref, secondRv)) {
-                                        nlAct.link(secondNRef, secondNRv, refAct, secondAct);
-                                        break;
-                                    }
-                                }
-                            }
+                    }
+                } else {
+                    for (Link sl : pAct.outputsToAndNode.values()) {
+                        if (childInputs.contains(sl.ref.input)) {
+                            join(act, fl, sl);
                         }
-                        lock.releaseReadLock();
                     }
                 }
             }
@@ -141,10 +134,120 @@ public class AndNode extends Node<AndNode, AndActivation> {
     }
 
 
+    private void join(AndActivation act, Link fl, Link sl) {
+        InputActivation refAct = fl.refAct;
+        Refinement ref = fl.ref;
+        RefValue rv = fl.rv;
+
+        InputActivation secondRefAct = sl.refAct;
+        Refinement secondRef = sl.ref;
+        RefValue secondRv = sl.rv;
+        AndActivation secondAct = sl.output;
+
+        // A sibling that has not been propagated yet will perform this join itself.
+        if (act == secondAct || !secondAct.isPropagated) {
+            return;
+        }
+        rv.joinCandidates++;
+
+        lock.acquireReadLock();
+        for(Map.Entry<Refinement, RefValue> me: andChildren.subMap(
+                new Refinement(RelationsMap.MIN, secondRef.input),
+                new Refinement(RelationsMap.MAX, secondRef.input)).entrySet()) {
+            Refinement nRef = me.getKey();
+            RefValue nRv = me.getValue();
+            if(nRef.contains(secondRef, rv)) {
+                AndNode nln = nRv.child.get(act.doc);
+                if(!nln.addInputs(act.doc, getInputIds(act, nRv, secondRefAct))) {
+                    continue;
+                }
+                rv.joinMatches++;
+
+                AndActivation nlAct = new AndActivation(act.doc.logicNodeActivationIdCounter++, act.doc, nln);
+                nlAct.link(nRef, nRv, secondRefAct, act);
+                nlAct.node.addActivation(nlAct);
+
+                for(Map.Entry<Refinement, RefValue> mea: nlAct.node.parents.entrySet()) {
+                    Refinement secondNRef = mea.getKey();
+                    RefValue secondNRv = mea.getValue();
+                    if(secondNRv.parent.get(act.doc) == secondAct.node && secondNRef.contains(ref, secondRv)) {
+                        nlAct.link(secondNRef, secondNRv, refAct, secondAct);
+                        break;
+                    }
+                }
+            }
+        }
+        lock.releaseReadLock();
+    }
+
+
+    /**
+     * The links to the and-node activations of a parent activation are ordered by the refinement input first, hence
+     * the siblings with a given refinement input form a contiguous range.
+     */
+    static long getSiblingKey(int inputId, int actId) {
+        return ((long) inputId << 32) | (actId & 0xFFFFFFFFL);
+    }
+
+
+    private static SortedMap<Long, Link> getSiblings(NodeActivation<?> pAct, Provider<InputNode> in) {
+        return pAct.outputsToAndNode.subMap(getSiblingKey(in.id, 0), getSiblingKey(in.id + 1, 0));
+    }
+
+
+    /**
+     * Computes the ids of the input activations of a new activation of the child node {@code nRv.child}, which
+     * consists of the input activations of {@code pAct} and the activation of {@code refAct}.
+     */
+    static int[] getInputIds(NodeActivation<?> pAct, RefValue nRv, InputActivation refAct) {
+        int[] ids = new int[nRv.offsets.length + 1];
+        for (int i = 0; i < nRv.offsets.length; i++) {
+            Activation iAct = pAct.getInputActivation(i);
+            ids[nRv.offsets[i]] = iAct != null ? iAct.id : -1;
+        }
+        ids[nRv.refOffset] = refAct.input.input.id;
+        return ids;
+    }
+
+
+    /**
+     * Registers the input activations of a new activation of this node. Several pairs of parent activations may
+     * lead to the same activation, especially if they are added to the document at the same time, so only the first
+     * one is created.
+     *
+     * @return false if an activation with these input activations already exists.
+     */
+    boolean addInputs(Document doc, int[] inputIds) {
+        AndThreadState th = (AndThreadState) getThreadState(doc.threadId, true);
+        if (th.docId != doc.id) {
+            th.docId = doc.id;
+            th.inputs.clear();
+        }
+        return th.inputs.add(new InputIds(inputIds));
+    }
+
 
     @Override
-    public void discover(AndActivation act, PatternDiscovery.Config config) {
-        Document doc = act.doc;
+    ThreadState<AndNode, AndActivation> createThreadState() {
+        return new AndThreadState();
+    }
+
+
+    @Override
+    public void clearActivations(int threadId) {
+        super.clearActivations(threadId);
+
+        AndThreadState th = (AndThreadState) getThreadState(threadId, false);
+        if (th == null) return;
+        th.docId = -1;
+        th.inputs.clear();
+    }
+
+
+
+    @Override
+    public List<PatternDiscovery.Candidate> collectDiscoveryCandidates(AndActivation act, PatternDiscovery.Config config) {
+        List<PatternDiscovery.Candidate> results = new ArrayList<>();
         for(Link fl : act.inputs) {
             if(fl == null) continue;
 
@@ -155,22 +258,14 @@ public class AndNode extends Node<AndNode, AndActivation> {
                         Activation iAct = act.getInputActivation(fl.rv.refOffset);
                         Activation secondIAct = secondAct.getInputActivation(sl.rv.refOffset);
 
-                        List<Relation> rels = InputNode.getRelations(iAct, secondIAct);
-                        rels.add(null);
-
-                        for(Relation rel: rels) {
-                            Refinement nRef = createRefinement(fl.rv, sl.ref, rel);
-
-                            AndNode.RefValue rv = extend(doc.threadId, doc, nRef, config);
-                            if (rv != null) {
-                                AndNode nln = rv.child.get();
-                                nln.isDiscovered = true;
-                            }
-                        }
+                        results.add(new PatternDiscovery.Candidate(this, iAct, secondIAct, true, rel ->
+                                createRefinement(fl.rv, sl.ref, rel)
+                        ));
                     }
                 }
             }
         }
+        return results;
     }
 
 
@@ -253,7 +348,7 @@ public class AndNode extends Node<AndNode, AndActivation> {
         firstRV = new RefValue(firstOffsets, firstRefOffset, provider);
         nextLevelParents.put(firstRef, firstRV);
 
-        return createAndNode(provider.model, doc, nextLevelParents, level + 1, patterDiscoverConfig) ? firstRV : null;
+        return createAndNode(provider.model, doc, nextLevelParents, level + 1, patterDiscoverConfig) ? getAndChild(firstRef) : null;
     }
 
 
@@ -270,14 +365,33 @@ public class AndNode extends Node<AndNode, AndActivation> {
                 pn.get().lock.acquireWriteLock();
             }
             try {
+                // The node might have been created concurrently by another thread, after its parents have been
+                // checked without holding the write locks.
+                Map.Entry<Refinement, RefValue> firstParent = parents.entrySet().iterator().next();
+                Node firstParentNode = firstParent.getValue().parent.get();
+                if(firstParentNode.andChildren != null && firstParentNode.andChildren.containsKey(firstParent.getKey())) {
+                    return true;
+                }
+
+                // A node with an equal pattern might have been reached through other refinements. It is then shared
+                // by registering the refinements of these parents as aliases.
+                PatternKey key = PatternKey.create(level, parents);
+                AndNode existingNode = lookupPattern(m, key);
+                if(existingNode != null) {
+                    existingNode.addAliases(key, parents);
+                    return true;
+                }
+
                 AndNode nln = new AndNode(m, level, parents);
 
                 if(patterDiscoverConfig != null && !patterDiscoverConfig.patternCheck.check(nln)) {
                     return false;
                 }
 
+                nln.patternKey = key;
                 nln.init();
                 nln.postCreate(doc);
+                internPattern(m, nln);
             } finally {
                 for (Provider<? extends Node> pn : parentsForLocking) {
                     pn.get().lock.releaseWriteLock();
@@ -289,6 +403,133 @@ public class AndNode extends Node<AndNode, AndActivation> {
     }
 
 
+    /**
+     * Returns the and-node in memory with the given pattern. A suspended node is not reactivated, since the caller
+     * holds the write locks of the parents of the new node. The new node then replaces it in the intern table.
+     */
+    private static AndNode lookupPattern(Model m, PatternKey key) {
+        Integer id;
+        synchronized (m.patterns) {
+            id = m.patterns.get(key);
+        }
+        if(id == null) return null;
+
+        AndNode n = m.<Provider<AndNode>>lookupNodeProvider(id).getIfNotSuspended();
+        return n != null && !n.isRemoved ? n : null;
+    }
+
+
+    private static void internPattern(Model m, AndNode n) {
+        synchronized (m.patterns) {
+            m.patterns.put(n.getPatternKey(), n.provider.id);
+        }
+    }
+
+
+    private void unintern() {
+        synchronized (provider.model.patterns) {
+            PatternKey key = getPatternKey();
+            if(provider.id.equals(provider.model.patterns.get(key))) {
+                provider.model.patterns.remove(key);
+            }
+        }
+    }
+
+
+    public PatternKey getPatternKey() {
+        if(patternKey == null) {
+            patternKey = PatternKey.create(level, parents);
+        }
+        return patternKey;
+    }
+
+
+    /**
+     * Registers the refinements of the given parents, which lead to the same pattern as this node, as children of
+     * these parents. The offsets of the refinements are mapped onto the offsets of this node. The caller holds the
+     * write locks of the parents.
+     */
+    private void addAliases(PatternKey key, SortedMap<Refinement, RefValue> aliasParents) {
+        int[] offsets = new int[level];
+        for(int i = 0; i < level; i++) {
+            offsets[getPatternKey().positions[i]] = i;
+        }
+
+        List<Node> newAliasParents = new ArrayList<>();
+        SortedMap<Refinement, RefValue> newParents = new TreeMap<>(parents);
+        for(Map.Entry<Refinement, RefValue> me: aliasParents.entrySet()) {
+            Refinement ref = me.getKey();
+            RefValue rv = me.getValue();
+            Node pn = rv.parent.get();
+            if(newParents.containsKey(ref) || (pn.andChildren != null && pn.andChildren.containsKey(ref))) {
+                continue;
+            }
+
+            Integer[] aliasOffsets = new Integer[rv.offsets.length];
+            for(int i = 0; i < rv.offsets.length; i++) {
+                if(rv.offsets[i] != null) {
+                    aliasOffsets[i] = offsets[key.positions[rv.offsets[i]]];
+                }
+            }
+            RefValue aliasRV = new RefValue(aliasOffsets, offsets[key.positions[rv.refOffset]], rv.parent);
+            aliasRV.child = provider;
+
+            newParents.put(ref, aliasRV);
+            pn.addAndChild(ref, aliasRV);
+            pn.setModified();
+            newAliasParents.add(pn);
+            numberOfAliases++;
+        }
+
+        addNeuronRefsToAliasAncestors(newAliasParents);
+
+        // The parents map is replaced, since it is iterated without holding a lock.
+        parents = newParents;
+        setModified();
+    }
+
+
+    /**
+     * The neuron references of a node are counted in all its ancestors, and {@code changeNumberOfNeuronRefs} walks
+     * the alias parents as well. Hence the current references of this node are added to the ancestors that are only
+     * reachable through the new alias parents, otherwise removing a neuron would decrement them below their true
+     * value. A neuron that already references such an ancestor through another node is counted twice, which can only
+     * delay the removal of that ancestor.
+     */
+    private void addNeuronRefsToAliasAncestors(List<Node> aliasParents) {
+        int refs = numberOfNeuronRefs.get();
+        if(refs == 0 || aliasParents.isEmpty()) return;
+
+        Set<Node> ancestors = new TreeSet<>();
+        for(RefValue rv: parents.values()) {
+            collectAncestors(rv.parent.get(), ancestors);
+        }
+
+        Set<Node> aliasAncestors = new TreeSet<>();
+        for(Node pn: aliasParents) {
+            collectAncestors(pn, aliasAncestors);
+        }
+
+        for(Node an: aliasAncestors) {
+            if(!ancestors.contains(an)) {
+                an.numberOfNeuronRefs.addAndGet(refs);
+                an.setModified();
+            }
+        }
+    }
+
+
+    private static void collectAncestors(Node n, Set<Node> ancestors) {
+        if(!ancestors.add(n)) return;
+
+        if(n instanceof AndNode) {
+            for(RefValue rv: ((AndNode) n).parents.values()) {
+                collectAncestors(rv.parent.get(), ancestors);
+            }
+        }
+    }
+
+
     @Override
     public void changeNumberOfNeuronRefs(int threadId, long v, int d) {
         super.changeNumberOfNeuronRefs(threadId, v, d);
@@ -313,6 +554,8 @@ public class AndNode extends Node<AndNode, AndActivation> {
     public void remove() {
         super.remove();
 
+        unintern();
+
         for(Map.Entry<Refinement, RefValue> me: parents.entrySet()) {
             Node pn = me.getValue().parent.get();
             pn.lock.acquireWriteLock();
@@ -323,6 +566,12 @@ public class AndNode extends Node<AndNode, AndActivation> {
     }
 
 
+    @Override
+    public void suspend() {
+        unintern();
+    }
+
+
     public String logicToString() {
         StringBuilder sb = new StringBuilder();
         sb.append("AND[");
@@ -342,6 +591,7 @@ public class AndNode extends Node<AndNode, AndActivation> {
     @Override
     public void write(DataOutput out) throws IOException {
         out.writeBoolean(false);
+        out.writeByte(FORMAT_VERSION);
         out.writeChar('A');
         super.write(out);
 
@@ -350,11 +600,22 @@ public class AndNode extends Node<AndNode, AndActivation> {
             me.getKey().write(out);
             me.getValue().write(out);
         }
+
+        getPatternKey().write(out);
     }
 
 
     @Override
     public void readFields(DataInput in, Model m) throws IOException {
+        readFields(in, m, FORMAT_VERSION);
+    }
+
+
+    /**
+     * Reads an and-node stored in the given format version. The pattern key of the unversioned format is computed
+     * from the parents, which loads the ancestors of the node.
+     */
+    void readFields(DataInput in, Model m, int version) throws IOException {
         super.readFields(in, m);
 
         int s = in.readInt();
@@ -363,6 +624,18 @@ public class AndNode extends Node<AndNode, AndActivation> {
             RefValue rv = RefValue.read(in, m);
             parents.put(ref, rv);
         }
+        numberOfAliases = Math.max(0, parents.size() - level);
+
+        if(version >= 2) {
+            patternKey = PatternKey.read(in, m);
+        }
+
+        // Nodes that have been stored before are interned as well, so that equal patterns are still shared after
+        // the model has been reloaded.
+        PatternKey key = getPatternKey();
+        synchronized (m.patterns) {
+            m.patterns.putIfAbsent(key, provider.id);
+        }
     }
 
 
@@ -395,7 +668,7 @@ public class AndNode extends Node<AndNode, AndActivation> {
 
         public void write(DataOutput out) throws IOException {
             relations.write(out);
-            out.writeInt(input.id);
+            input.writeId(out);
         }
 
 
@@ -554,6 +827,11 @@ public class AndNode extends Node<AndNode, AndActivation> {
         public Provider<? extends Node> parent;
         public Provider<AndNode> child;
 
+        // Join statistics of the sibling activations reached through this parent. They are not synchronized and
+        // therefore only estimates.
+        public long joinCandidates;
+        public long joinMatches;
+
         private RefValue() {}
 
         public RefValue(Integer[] offsets, int refOffset, Provider<? extends Node> parent) {
@@ -576,8 +854,8 @@ public class AndNode extends Node<AndNode, AndActivation> {
                 out.writeInt(ofs);
             }
             out.writeInt(refOffset);
-            out.writeInt(parent.id);
-            out.writeInt(child.id);
+            parent.writeId(out);
+            child.writeId(out);
         }
 
         public static RefValue read(DataInput in, Model m)  throws IOException {
@@ -605,6 +883,30 @@ public class AndNode extends Node<AndNode, AndActivation> {
     }
 
 
+    private static class AndThreadState extends ThreadState<AndNode, AndActivation> {
+        int docId = -1;
+        TreeSet<InputIds> inputs = new TreeSet<>();
+    }
+
+
+    private static class InputIds implements Comparable<InputIds> {
+        int[] ids;
+
+        InputIds(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public int compareTo(InputIds in) {
+            int r = Integer.compare(ids.length, in.ids.length);
+            for (int i = 0; r == 0 && i < ids.length; i++) {
+                r = Integer.compare(ids[i], in.ids[i]);
+            }
+            return r;
+        }
+    }
+
+
     public static class AndActivation extends NodeActivation<AndNode> {
 
         public Link[] inputs;
@@ -617,7 +919,7 @@ public class AndNode extends Node<AndNode, AndActivation> {
         public void link(Refinement ref, RefValue rv, InputActivation refAct, NodeActivation<?> input) {
             Link l = new Link(ref, rv, refAct, input, this);
             inputs[rv.refOffset] = l;
-            input.outputsToAndNode.put(id, l);
+            input.outputsToAndNode.put(getSiblingKey(ref.input.id, id), l);
         }
 
         public Activation getInputActivation(int i) {
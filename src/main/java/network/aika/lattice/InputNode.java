@@ -55,6 +55,18 @@ public class InputNode extends Node<InputNode, InputActivation> {
 
     public TreeMap<AndNode.Refinement, AndNode.RefValue> nonExactAndChildren;
 
+    /**
+     * Index of the exact refinements: equality probe -> input node -> refinements. An exact refinement is matched by
+     * looking up the activations whose begin or end equals the begin or end of the incoming activation. Only
+     * the refinements of the input nodes of these activations need to be applied.
+     */
+    private List<TreeMap<Provider<InputNode>, TreeMap<Refinement, RefValue>>> exactAndChildren;
+
+    private static final int BEGIN_TO_BEGIN_PROBE = 0;
+    private static final int BEGIN_TO_END_PROBE = 1;
+    private static final int END_TO_END_PROBE = 2;
+    private static final int END_TO_BEGIN_PROBE = 3;
+
     private long visitedDiscover;
 
 
@@ -122,13 +134,26 @@ public class InputNode extends Node<InputNode, InputActivation> {
     void addAndChild(AndNode.Refinement ref, AndNode.RefValue child) {
         super.addAndChild(ref, child);
 
-        if(!ref.relations.isExact()) {
+        int probe = getProbe(ref);
+        if(probe < 0) {
             if (nonExactAndChildren == null) {
                 nonExactAndChildren = new TreeMap<>();
             }
 
             AndNode.RefValue n = nonExactAndChildren.put(ref, child);
             assert n == null;
+        } else {
+            if (exactAndChildren == null) {
+                exactAndChildren = new ArrayList<>(4);
+                for(int i = 0; i < 4; i++) {
+                    exactAndChildren.add(new TreeMap<>());
+                }
+            }
+
+            AndNode.RefValue n = exactAndChildren.get(probe)
+                    .computeIfAbsent(ref.input, in -> new TreeMap<>())
+                    .put(ref, child);
+            assert n == null;
         }
     }
 
@@ -136,7 +161,8 @@ public class InputNode extends Node<InputNode, InputActivation> {
     void removeAndChild(AndNode.Refinement ref) {
         super.removeAndChild(ref);
 
-        if(!ref.relations.isExact()) {
+        int probe = getProbe(ref);
+        if(probe < 0) {
             if (nonExactAndChildren != null) {
                 nonExactAndChildren.remove(ref);
 
@@ -144,7 +170,41 @@ public class InputNode extends Node<InputNode, InputActivation> {
                     nonExactAndChildren = null;
                 }
             }
+        } else if(exactAndChildren != null) {
+            TreeMap<Provider<InputNode>, TreeMap<Refinement, RefValue>> index = exactAndChildren.get(probe);
+            TreeMap<Refinement, RefValue> refs = index.get(ref.input);
+            if(refs != null) {
+                refs.remove(ref);
+                if(refs.isEmpty()) {
+                    index.remove(ref.input);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the equality probe that is used to look up the matching activations of an exact refinement or -1 if
+     * the refinement is not exact. The order of the checks is the same as in
+     * {@code RangeRelation.getActivationsByRangeEquals}.
+     */
+    private static int getProbe(Refinement ref) {
+        if(ref.relations.length() == 0 || !ref.relations.isExact()) return -1;
+
+        Relation rel = ref.relations.get(0);
+        if(!(rel instanceof RangeRelation)) return -1;
+
+        Range.Relation rr = ((RangeRelation) rel).relation;
+        if(rr.beginToBegin == Range.Operator.EQUALS) {
+            return BEGIN_TO_BEGIN_PROBE;
+        } else if(rr.beginToEnd == Range.Operator.EQUALS) {
+            return BEGIN_TO_END_PROBE;
+        } else if(rr.endToEnd == Range.Operator.EQUALS) {
+            return END_TO_END_PROBE;
+        } else if(rr.endToBegin == Range.Operator.EQUALS) {
+            return END_TO_BEGIN_PROBE;
         }
+        return -1;
     }
 
 
@@ -170,7 +230,7 @@ public class InputNode extends Node<InputNode, InputActivation> {
         rv = new RefValue(new Integer[] {0}, 1, provider);
         nlParents.put(ref, rv);
 
-        return AndNode.createAndNode(provider.model, doc, nlParents, level + 1, patterDiscoveryConfig) ? rv : null;
+        return AndNode.createAndNode(provider.model, doc, nlParents, level + 1, patterDiscoveryConfig) ? getAndChild(ref) : null;
     }
 
 
@@ -179,25 +239,21 @@ public class InputNode extends Node<InputNode, InputActivation> {
      */
     @Override
     void apply(InputActivation act) {
+        act.isPropagated = true;
+
         try {
             lock.acquireReadLock();
-            if (andChildren != null) {
-                TreeMap<AndNode.Refinement, AndNode.RefValue> children;
-                if(andChildren.size() > 10) {
-                    children = nonExactAndChildren;
-                    applyExactRelations(act);
-                } else {
-                    children = andChildren;
-                }
+            if(exactAndChildren != null) {
+                applyExactRelations(act);
+            }
 
-                if(children != null) {
-                    children.forEach((ref, rv) -> {
-                        InputNode in = ref.input.getIfNotSuspended();
-                        if (in != null) {
-                            addNextLevelActivations(in, ref, rv.child.get(act.doc), act);
-                        }
-                    });
-                }
+            if(nonExactAndChildren != null) {
+                nonExactAndChildren.forEach((ref, rv) -> {
+                    InputNode in = ref.input.getIfNotSuspended();
+                    if (in != null) {
+                        addNextLevelActivations(in, ref, rv.child.get(act.doc), act);
+                    }
+                });
             }
         } finally {
             lock.releaseReadLock();
@@ -208,16 +264,41 @@ public class InputNode extends Node<InputNode, InputActivation> {
 
 
     private void applyExactRelations(InputActivation act) {
-        Activation iAct = act.input.input;
+        Document doc = act.doc;
+        Range r = act.input.input.range;
+
+        for(int probe = 0; probe < 4; probe++) {
+            TreeMap<Provider<InputNode>, TreeMap<Refinement, RefValue>> index = exactAndChildren.get(probe);
+            if(index.isEmpty()) continue;
+
+            Collection<Activation> linkedActs;
+            switch(probe) {
+                case BEGIN_TO_BEGIN_PROBE:
+                case BEGIN_TO_END_PROBE:
+                    int beginKey = probe == BEGIN_TO_BEGIN_PROBE ? r.begin : r.end;
+                    linkedActs = doc.getActivationsByRangeBegin(
+                            new Range(beginKey, Integer.MIN_VALUE), true,
+                            new Range(beginKey, Integer.MAX_VALUE), true
+                    );
+                    break;
+                default:
+                    int endKey = probe == END_TO_END_PROBE ? r.end : r.begin;
+                    linkedActs = doc.getActivationByRangeEnd(
+                            new Range(Integer.MIN_VALUE, endKey), true,
+                            new Range(Integer.MAX_VALUE, endKey), true
+                    );
+            }
 
-        for(Range.Relation rel: new Range.Relation[] {BEGIN_EQUALS, END_EQUALS, BEGIN_TO_END_EQUALS, END_TO_BEGIN_EQUALS}) {
-            for(Activation linkedAct: RangeRelation.getActivationsByRangeEquals(act.doc, iAct.range, rel)) {
-                Provider<InputNode> in = linkedAct.getINeuron().outputNode;
-                for (Map.Entry<AndNode.Refinement, AndNode.RefValue> me : andChildren.subMap(
-                        new Refinement(RelationsMap.MIN, in),
-                        new Refinement(RelationsMap.MAX, in)).entrySet()) {
-                    addNextLevelActivations(in.get(act.doc), me.getKey(), me.getValue().child.get(act.doc), act);
-                }
+            Set<Provider<InputNode>> visited = new TreeSet<>();
+            for(Activation linkedAct: linkedActs) {
+                Provider<InputNode> inProvider = linkedAct.getINeuron().outputNode;
+                TreeMap<Refinement, RefValue> refs = index.get(inProvider);
+                if(refs == null || !visited.add(inProvider)) continue;
+
+                InputNode in = inProvider.getIfNotSuspended();
+                if (in == null) continue;
+
+                refs.forEach((ref, rv) -> addNextLevelActivations(in, ref, rv.child.get(doc), act));
             }
         }
     }
@@ -235,7 +316,8 @@ public class InputNode extends Node<InputNode, InputActivation> {
         ref.relations.get(0).getActivations(secondNode.inputNeuron.get(doc), iAct).forEach(secondIAct -> {
                     if (secondIAct.outputToInputNode != null) {
                         InputActivation secondAct = secondIAct.outputToInputNode.output;
-                        if (secondAct != null) {
+                        // A second activation that has not been propagated yet will perform this join itself.
+                        if (secondAct != null && secondAct.isPropagated && nln.addInputs(doc, AndNode.getInputIds(act, nln.parents.get(ref), secondAct))) {
                             //    if (!Conflicts.isConflicting(iAct, secondIAct)) {
                             AndActivation oAct = new AndActivation(doc.logicNodeActivationIdCounter++, doc, nln);
                             for (Map.Entry<Refinement, RefValue> me : nln.parents.entrySet()) {
@@ -252,46 +334,75 @@ public class InputNode extends Node<InputNode, InputActivation> {
 
 
     @Override
-    public void discover(InputActivation act, PatternDiscovery.Config config) {
+    public List<PatternDiscovery.Candidate> collectDiscoveryCandidates(InputActivation act, PatternDiscovery.Config config) {
+        List<PatternDiscovery.Candidate> results = new ArrayList<>();
         if(!act.input.input.isFinalActivation()) {
-            return;
+            return results;
         }
 
-        Document doc = act.doc;
-        doc.getActivations(true).forEach(secondNAct -> {
+        for(Activation secondNAct: getDiscoveryPartners(act.input.input, config.window)) {
+            if(!secondNAct.isFinalActivation()) continue;
+
             InputActivation secondAct = secondNAct.outputToInputNode.output;
             if (act != secondAct && config.candidateCheck.check(act, secondAct)) {
-                List<Relation> relations = getRelations(act.input.input, secondNAct);
-                for(Relation r: relations) {
-                    InputNode in = secondAct.node;
-
-                    if (r != null) {
-                        RelationsMap rm = new RelationsMap(new Relation[] {r});
-                        Refinement ref = new Refinement(rm, in.provider);
+                InputNode in = secondAct.node;
+                results.add(new PatternDiscovery.Candidate(this, act.input.input, secondNAct, false, r ->
+                        new Refinement(new RelationsMap(new Relation[] {r}), in.provider)
+                ));
+            }
+        }
+        return results;
+    }
 
-                        AndNode.RefValue rv = extend(doc.threadId, doc, ref, config);
 
-                        if (rv != null) {
-                            AndNode nln = rv.child.get();
-                            nln.isDiscovered = true;
-                        }
-                    }
-                }
-            }
-        });
+    private static Collection<Activation> getDiscoveryPartners(Activation act, Integer window) {
+        Document doc = act.doc;
+        if(window == null) {
+            return doc.getActivations(false);
+        }
+        return doc.getActivationsByRangeBegin(
+                new Range(act.range.begin - window, Integer.MIN_VALUE),
+                true,
+                new Range(act.range.end + window, Integer.MAX_VALUE),
+                true
+        );
     }
 
 
     public static List<Relation> getRelations(Activation act1, Activation act2) {
         ArrayList<Relation> rels = new ArrayList<>();
+        Relation rel = getRangeRelation(act1, act2);
+        if(rel == null) {
+            rel = getInstanceRelation(act1, act2);
+        }
+        if(rel != null) {
+            rels.add(rel);
+        }
+        return rels;
+    }
+
+
+    /**
+     * Returns the first candidate relation between the two activations that does not depend on the instance
+     * relations. This test does not modify the document and is therefore thread safe.
+     */
+    public static Relation getRangeRelation(Activation act1, Activation act2) {
         for(Relation rel: CANDIDATE_RELATIONS) {
-            if(rel.test(act2, act1)) {
-                rels.add(rel);
-                break;
+            if(!(rel instanceof InstanceRelation) && rel.test(act2, act1)) {
+                return rel;
             }
         }
+        return null;
+    }
 
-        return rels;
+
+    public static Relation getInstanceRelation(Activation act1, Activation act2) {
+        for(Relation rel: CANDIDATE_RELATIONS) {
+            if(rel instanceof InstanceRelation && rel.test(act2, act1)) {
+                return rel;
+            }
+        }
+        return null;
     }
 
 
@@ -324,12 +435,13 @@ public class InputNode extends Node<InputNode, InputActivation> {
     @Override
     public void write(DataOutput out) throws IOException {
         out.writeBoolean(false);
+        out.writeByte(FORMAT_VERSION);
         out.writeChar('I');
         super.write(out);
 
         out.writeBoolean(inputNeuron != null);
         if (inputNeuron != null) {
-            out.writeInt(inputNeuron.id);
+            inputNeuron.writeId(out);
         }
     }
 
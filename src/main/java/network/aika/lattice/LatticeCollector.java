@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.lattice;
+
+
+import network.aika.AbstractNode;
+import network.aika.Model;
+import network.aika.Provider;
+import network.aika.Provider.SuspensionMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The {@code LatticeCollector} removes and-nodes that are neither referenced by a neuron nor marked as discovered.
+ * The providers of the model, including the nodes in the storage of the suspension hook, are scanned incrementally,
+ * so that each call of {@code collect} only takes a bounded amount of time. The collector may either be called
+ * explicitly or run in a background thread using {@code start}.
+ *
+ * <p>A node is only removed if it has already been found unreferenced by a previous round of the collector and if
+ * at least {@code minAge} documents have been created since then. Nodes that have been used by a document which is
+ * still being processed are skipped. This prevents the removal of nodes that have just been created by the converter
+ * or the pattern discovery, but are not yet referenced. Since the descendants of a node are removed along with it,
+ * the same conditions apply to all of them.
+ *
+ * @author Lukas Molzberger
+ */
+public class LatticeCollector {
+
+    private static final Logger log = LoggerFactory.getLogger(LatticeCollector.class);
+
+    private final Model model;
+    private final int minAge;
+
+    private List<Integer> round = Collections.emptyList();
+    private int position;
+
+    // Node id -> document id counter at the time the node has been found unreferenced.
+    private TreeMap<Integer, Integer> candidates = new TreeMap<>();
+    private TreeMap<Integer, Integer> nextCandidates = new TreeMap<>();
+
+    private Thread thread;
+    private volatile boolean running;
+
+    public volatile long numberOfRounds;
+    public volatile long numberOfScannedNodes;
+    public volatile long numberOfReclaimedNodes;
+    public volatile long numberOfReclaimedSuspendedNodes;
+
+
+    public LatticeCollector(Model model, int minAge) {
+        this.model = model;
+        this.minAge = minAge;
+    }
+
+
+    /**
+     * Scans the next providers of the current round.
+     *
+     * @param maxNodes The maximum number of providers to scan.
+     * @return The number of reclaimed nodes.
+     */
+    public synchronized int collect(int maxNodes) {
+        if(position >= round.size()) {
+            startRound();
+        }
+
+        int reclaimed = 0;
+        int end = Math.min(round.size(), position + maxNodes);
+        for(; position < end; position++) {
+            reclaimed += collectNode(round.get(position));
+            numberOfScannedNodes++;
+        }
+        return reclaimed;
+    }
+
+
+    private void startRound() {
+        TreeSet<Integer> ids = new TreeSet<>();
+        synchronized (model.activeProviders) {
+            ids.addAll(model.activeProviders.keySet());
+        }
+        if(model.suspensionHook != null) {
+            for(Integer id: model.suspensionHook.getAllNodeIds()) {
+                ids.add(id);
+            }
+        }
+
+        round = new ArrayList<>(ids);
+        position = 0;
+        candidates = nextCandidates;
+        nextCandidates = new TreeMap<>();
+        numberOfRounds++;
+    }
+
+
+    private int collectNode(int id) {
+        Provider<? extends AbstractNode> p = model.lookupProvider(id);
+        boolean suspended = p == null || p.getIfNotSuspended() == null;
+        if(suspended && (model.suspensionHook == null || isNeuron(model.suspensionHook.retrieve(id)))) {
+            return 0;
+        }
+
+        if(p == null) {
+            p = model.lookupNodeProvider(id);
+        }
+
+        AbstractNode an = p.get();
+        if(!(an instanceof AndNode)) {
+            return 0;
+        }
+
+        AndNode n = (AndNode) an;
+        if(n.isRemoved) {
+            // The descendants that have been reclaimed together with a node earlier in this round are no longer
+            // registered.
+            synchronized (model.activeProviders) {
+                if(!model.activeProviders.containsKey(id)) {
+                    return 0;
+                }
+            }
+
+            // The node has already been removed by a cleanup, but its provider is still registered.
+            release(model, n.provider);
+            numberOfReclaimedNodes++;
+            return 1;
+        }
+
+        int docId = model.docIdCounter.get();
+        if(isInUse(n)) {
+            if(suspended) {
+                p.suspend(SuspensionMode.SAVE);
+            }
+            return 0;
+        }
+
+        Integer firstSeen = candidates.get(id);
+        if(firstSeen == null || firstSeen + minAge > docId) {
+            nextCandidates.put(id, firstSeen != null ? firstSeen : docId);
+            if(suspended) {
+                p.suspend(SuspensionMode.SAVE);
+            }
+            return 0;
+        }
+
+        Set<AndNode> removedNodes = new TreeSet<>();
+        Set<AndNode> suspendedNodes = new TreeSet<>();
+        if(suspended) {
+            suspendedNodes.add(n);
+        }
+        collectDescendants(n, removedNodes, suspendedNodes);
+
+        // The documents reach an and-node through the children of its parents, which are read while holding the
+        // read lock of the parent. Hence the write locks of the removed nodes and their parents are held across the
+        // check and the removal. They are acquired in the order of the node ids, like in createAndNode.
+        TreeSet<Node> lockedNodes = new TreeSet<>();
+        for(AndNode rn: removedNodes) {
+            lockedNodes.add(rn);
+            for(AndNode.RefValue rv: rn.parents.values()) {
+                lockedNodes.add(rv.parent.get());
+            }
+        }
+
+        boolean removed = false;
+        lockedNodes.forEach(ln -> ln.lock.acquireWriteLock());
+        try {
+            // The descendants are removed together with the node, hence it is skipped as long as one of them is
+            // still in use. It has to be found unreferenced again by a later round. A descendant that has been added
+            // before the locks were acquired is only checked by a later round as well.
+            Set<AndNode> currentNodes = new TreeSet<>();
+            collectDescendants(n, currentNodes, suspendedNodes);
+            if(!n.isRemoved && currentNodes.equals(removedNodes) && !isInUse(removedNodes)) {
+                n.remove();
+                removed = true;
+            }
+        } finally {
+            lockedNodes.forEach(ln -> ln.lock.releaseWriteLock());
+        }
+
+        if(!removed) {
+            suspendedNodes.forEach(sn -> sn.provider.suspend(SuspensionMode.SAVE));
+            return 0;
+        }
+
+        removedNodes.forEach(rn -> release(model, rn.provider));
+
+        numberOfReclaimedNodes += removedNodes.size();
+        numberOfReclaimedSuspendedNodes += suspendedNodes.size();
+        return removedNodes.size();
+    }
+
+
+    private boolean isInUse(Set<AndNode> nodes) {
+        for(AndNode n: nodes) {
+            if(isInUse(n)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private boolean isInUse(AndNode n) {
+        return n.isRequired() || n.lastUsedDocumentId >= model.getOldestDocIdInProcessing();
+    }
+
+
+    static void release(Model model, Provider<? extends AbstractNode> p) {
+        model.unregister(p);
+        if(model.suspensionHook != null) {
+            model.suspensionHook.remove(p.id);
+        }
+    }
+
+
+    /**
+     * Collects the given node and its descendants. The descendants that have been suspended before are added to
+     * {@code suspendedNodes}.
+     */
+    static void collectDescendants(AndNode n, Set<AndNode> results, Set<AndNode> suspendedNodes) {
+        if(n.isRemoved || !results.add(n)) return;
+
+        if(n.andChildren != null) {
+            for(AndNode.RefValue rv: n.andChildren.values()) {
+                boolean suspended = rv.child.isSuspended();
+                AndNode cn = rv.child.get();
+                if(suspended) {
+                    suspendedNodes.add(cn);
+                }
+                collectDescendants(cn, results, suspendedNodes);
+            }
+        }
+    }
+
+
+    static boolean isNeuron(byte[] data) {
+        if(data == null) return true;
+
+        try (
+                GZIPInputStream gzipis = new GZIPInputStream(new ByteArrayInputStream(data));
+                DataInputStream dis = new DataInputStream(gzipis);) {
+            return dis.readBoolean();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Starts a background thread, which scans {@code batchSize} providers every {@code interval} milliseconds.
+     */
+    public synchronized void start(int batchSize, long interval) {
+        if(thread != null) return;
+
+        running = true;
+        thread = new Thread(() -> {
+            while(running) {
+                try {
+                    collect(batchSize);
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (RuntimeException e) {
+                    log.error("Lattice collector failed", e);
+                }
+            }
+        }, "lattice-collector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+            running = false;
+        }
+        if(t == null) return;
+
+        t.interrupt();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    public String toString() {
+        return "Rounds: " + numberOfRounds +
+                " Scanned nodes: " + numberOfScannedNodes +
+                " Reclaimed nodes: " + numberOfReclaimedNodes +
+                " Reclaimed suspended nodes: " + numberOfReclaimedSuspendedNodes;
+    }
+}
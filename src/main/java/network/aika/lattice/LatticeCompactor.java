@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.lattice;
+
+
+import network.aika.AbstractNode;
+import network.aika.Model;
+import network.aika.Provider;
+import network.aika.Provider.SuspensionMode;
+import network.aika.SuspensionHook;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The {@code LatticeCompactor} rewrites a model, which is stored by a suspension hook, into another suspension hook.
+ * The and-nodes that are neither referenced by a neuron nor marked as discovered are removed, and the remaining
+ * neurons and logic nodes are renumbered with the ids of the target hook. If the target hook is empty and assigns
+ * consecutive ids, the resulting ids are dense. The neurons receive the lowest ids, followed by the logic nodes
+ * ordered by their level.
+ *
+ * <p>The providers are streamed through the memory in batches of {@code batchSize} nodes, which are suspended after
+ * each batch. Only the level and the children of each node are kept until the end of the compaction. First, the
+ * structure of the lattice is scanned. Then the dead nodes are removed from the source model, the same way as the
+ * {@code LatticeCollector} does. Finally, the live nodes are serialized into the target hook. The references between
+ * the providers are translated by the id mapping during the serialization, hence the ids of the source model remain
+ * unchanged and the source model may still be used afterwards. No document may be processed during the compaction.
+ *
+ * <p>The model needs to be reopened from the target hook, using the id mapping of the result to translate external
+ * references to neurons. State outside of the model that is keyed by provider ids becomes invalid. For instance, a
+ * {@code FrequencyCounter} of the pattern discovery needs to be reset.
+ *
+ * @author Lukas Molzberger
+ */
+public class LatticeCompactor {
+
+    public static int DEFAULT_BATCH_SIZE = 1000;
+
+
+    /**
+     * The compact representation of the rewritten model. The arrays are indexed by the position of a provider,
+     * which is its new id minus the first id.
+     */
+    public static class Result {
+        public int[] ids;
+        public int[] levels;
+        public boolean[] isNeuron;
+        public int[][] children;
+
+        // Old id -> new id
+        public TreeMap<Integer, Integer> idMapping = new TreeMap<>();
+
+        public int numberOfRemovedNodes;
+
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < ids.length; i++) {
+                sb.append(ids[i]);
+                sb.append(isNeuron[i] ? " N" : " L" + levels[i]);
+                sb.append(" -> ");
+                sb.append(Arrays.toString(children[i]));
+                sb.append("\n");
+            }
+            return sb.toString();
+        }
+    }
+
+
+    private static class NodeInfo {
+        int level;
+        boolean isNeuron;
+        boolean isAndNode;
+        boolean isRequired;
+        int[] andChildren;
+        int[] orChildren;
+
+
+        NodeInfo(AbstractNode n) {
+            isNeuron = !(n instanceof Node);
+            level = isNeuron ? Integer.MIN_VALUE : ((Node) n).level;
+            isAndNode = n instanceof AndNode;
+            isRequired = isNeuron || ((Node) n).isRequired();
+
+            TreeSet<Integer> ac = new TreeSet<>();
+            TreeSet<Integer> oc = new TreeSet<>();
+            if(!isNeuron) {
+                Node<?, ?> node = (Node) n;
+                if(node.andChildren != null) {
+                    for(AndNode.RefValue rv: node.andChildren.values()) {
+                        ac.add(rv.child.id);
+                    }
+                }
+                if(node.orChildren != null) {
+                    for(OrNode.OrEntry oe: node.orChildren) {
+                        oc.add(oe.child.id);
+                    }
+                }
+            }
+            andChildren = toArray(ac);
+            orChildren = toArray(oc);
+        }
+    }
+
+
+    public static Result compact(Model m, SuspensionHook target) {
+        return compact(m, target, DEFAULT_BATCH_SIZE);
+    }
+
+
+    public static Result compact(Model m, SuspensionHook target, int batchSize) {
+        if(m.suspensionHook == null) {
+            throw new RuntimeException("The lattice compactor requires a model that is stored by a suspension hook.");
+        }
+
+        m.suspendAll(SuspensionMode.SAVE);
+
+        TreeMap<Integer, NodeInfo> nodes = scan(m, batchSize);
+
+        Result result = new Result();
+        result.numberOfRemovedNodes = removeDeadNodes(m, nodes, batchSize);
+
+        List<Integer> live = new ArrayList<>(nodes.keySet());
+        live.sort((id1, id2) -> {
+            int r = Integer.compare(nodes.get(id1).level, nodes.get(id2).level);
+            if(r != 0) return r;
+            return Integer.compare(id1, id2);
+        });
+
+        int size = live.size();
+        result.ids = new int[size];
+        result.levels = new int[size];
+        result.isNeuron = new boolean[size];
+        result.children = new int[size][];
+
+        for(int i = 0; i < size; i++) {
+            int newId = target.getNewId();
+            result.idMapping.put(live.get(i), newId);
+            result.ids[i] = newId;
+        }
+
+        for(int i = 0; i < size; i++) {
+            NodeInfo ni = nodes.get(live.get(i));
+            result.isNeuron[i] = ni.isNeuron;
+            result.levels[i] = ni.level;
+            result.children[i] = getChildren(ni, result.idMapping);
+        }
+
+        store(m, target, live, result.idMapping, batchSize);
+        return result;
+    }
+
+
+    private static TreeMap<Integer, NodeInfo> scan(Model m, int batchSize) {
+        List<Integer> ids = new ArrayList<>();
+        for(Integer id: m.suspensionHook.getAllNodeIds()) {
+            ids.add(id);
+        }
+
+        TreeMap<Integer, NodeInfo> nodes = new TreeMap<>();
+        for(int i = 0; i < ids.size(); i++) {
+            Integer id = ids.get(i);
+            nodes.put(id, new NodeInfo(lookupProvider(m, id).get()));
+
+            if((i + 1) % batchSize == 0) {
+                m.suspendAll(SuspensionMode.SAVE);
+            }
+        }
+        m.suspendAll(SuspensionMode.SAVE);
+        return nodes;
+    }
+
+
+    /**
+     * Removes the unrequired and-nodes together with their descendants. The candidates are visited by ascending
+     * level, so that the descendants of a removed node are not visited again. A node is skipped if one of its
+     * descendants is still required.
+     */
+    private static int removeDeadNodes(Model m, TreeMap<Integer, NodeInfo> nodes, int batchSize) {
+        List<Integer> candidates = new ArrayList<>();
+        for(Map.Entry<Integer, NodeInfo> me: nodes.entrySet()) {
+            NodeInfo ni = me.getValue();
+            if(ni.isAndNode && !ni.isRequired) {
+                candidates.add(me.getKey());
+            }
+        }
+        candidates.sort(Comparator.comparingInt(id -> nodes.get(id).level));
+
+        Set<Integer> removedNodes = new TreeSet<>();
+        int numberOfRemovals = 0;
+        x: for(Integer id: candidates) {
+            if(removedNodes.contains(id)) continue;
+
+            Set<Integer> descendants = new TreeSet<>();
+            collectDescendants(nodes, id, descendants);
+            descendants.removeAll(removedNodes);
+
+            for(Integer d: descendants) {
+                if(nodes.get(d).isRequired) {
+                    continue x;
+                }
+            }
+
+            m.lookupNodeProvider(id).get().remove();
+
+            for(Integer d: descendants) {
+                LatticeCollector.release(m, m.lookupNodeProvider(d));
+            }
+            removedNodes.addAll(descendants);
+
+            if(++numberOfRemovals % batchSize == 0) {
+                m.suspendAll(SuspensionMode.SAVE);
+            }
+        }
+        m.suspendAll(SuspensionMode.SAVE);
+
+        nodes.keySet().removeAll(removedNodes);
+        return removedNodes.size();
+    }
+
+
+    private static void collectDescendants(TreeMap<Integer, NodeInfo> nodes, Integer id, Set<Integer> results) {
+        if(!results.add(id)) return;
+
+        for(int c: nodes.get(id).andChildren) {
+            collectDescendants(nodes, c, results);
+        }
+    }
+
+
+    private static void store(Model m, SuspensionHook target, List<Integer> ids, Map<Integer, Integer> idMapping, int batchSize) {
+        for(int i = 0; i < ids.size(); i++) {
+            Integer id = ids.get(i);
+            target.store(idMapping.get(id), serialize(lookupProvider(m, id).get(), idMapping));
+
+            if((i + 1) % batchSize == 0) {
+                m.suspendAll(SuspensionMode.SAVE);
+            }
+        }
+        m.suspendAll(SuspensionMode.SAVE);
+    }
+
+
+    private static Provider<? extends AbstractNode> lookupProvider(Model m, Integer id) {
+        Provider<? extends AbstractNode> p = m.lookupProvider(id);
+        if(p == null) {
+            p = LatticeCollector.isNeuron(m.suspensionHook.retrieve(id)) ? m.lookupNeuron(id) : m.lookupNodeProvider(id);
+        }
+        return p;
+    }
+
+
+    private static int[] getChildren(NodeInfo ni, Map<Integer, Integer> idMapping) {
+        TreeSet<Integer> children = new TreeSet<>();
+        for(int c: ni.andChildren) {
+            Integer newId = idMapping.get(c);
+            if(newId != null) {
+                children.add(newId);
+            }
+        }
+        for(int c: ni.orChildren) {
+            children.add(idMapping.get(c));
+        }
+        return toArray(children);
+    }
+
+
+    private static int[] toArray(Collection<Integer> ids) {
+        int[] result = new int[ids.size()];
+        int i = 0;
+        for(Integer id: ids) {
+            result[i++] = id;
+        }
+        return result;
+    }
+
+
+    private static byte[] serialize(AbstractNode n, Map<Integer, Integer> idMapping) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (
+                GZIPOutputStream gzipos = new GZIPOutputStream(baos);
+                MappedDataOutputStream dos = new MappedDataOutputStream(gzipos, idMapping);) {
+
+            n.write(dos);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+
+    private static class MappedDataOutputStream extends DataOutputStream implements Provider.IdMapping {
+
+        private Map<Integer, Integer> idMapping;
+
+
+        MappedDataOutputStream(OutputStream out, Map<Integer, Integer> idMapping) {
+            super(out);
+            this.idMapping = idMapping;
+        }
+
+
+        @Override
+        public int getId(int id) {
+            Integer newId = idMapping.get(id);
+            if(newId == null) {
+                throw new RuntimeException("The provider " + id + " is referenced, but has not been compacted.");
+            }
+            return newId;
+        }
+    }
+}
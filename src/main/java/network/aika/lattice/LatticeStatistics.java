@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.lattice;
+
+
+import network.aika.AbstractNode;
+import network.aika.Model;
+import network.aika.Provider;
+import network.aika.neuron.Neuron;
+import network.aika.neuron.Synapse;
+
+import java.util.*;
+
+/**
+ * The {@code LatticeStatistics} describe the pattern lattice nodes that are currently loaded in memory. Suspended
+ * nodes are not taken into account.
+ *
+ * <p>The sharing ratio is the number of lattice nodes the neurons depend on, counted separately for each neuron,
+ * divided by the number of distinct nodes among them. A ratio of 1.0 means that no node is shared between neurons.
+ * Orphaned nodes are neither referenced by a neuron nor marked as discovered and are going to be removed by the
+ * next cleanup.
+ *
+ * @author Lukas Molzberger
+ */
+public class LatticeStatistics {
+
+    public TreeMap<Integer, Integer> nodesPerLevel = new TreeMap<>();
+    public int numberOfNodes;
+    public int numberOfOrphanedNodes;
+    public int numberOfAliases;
+    public int numberOfInternedPatterns;
+    public double sharingRatio;
+
+
+    public static LatticeStatistics create(Model m) {
+        LatticeStatistics ls = new LatticeStatistics();
+
+        List<Provider<? extends AbstractNode>> providers;
+        synchronized (m.activeProviders) {
+            providers = new ArrayList<>(m.activeProviders.values());
+        }
+        synchronized (m.patterns) {
+            ls.numberOfInternedPatterns = m.patterns.size();
+        }
+
+        long sharedReferences = 0;
+        Set<Node> referencedNodes = new TreeSet<>();
+        for(Provider<? extends AbstractNode> p: providers) {
+            AbstractNode an = p.getIfNotSuspended();
+            if(an instanceof OrNode) {
+                Set<Node> dependencies = getDependencies((OrNode) an);
+                sharedReferences += dependencies.size();
+                referencedNodes.addAll(dependencies);
+            } else if(an instanceof Node) {
+                Node n = (Node) an;
+                if(n.isRemoved) continue;
+
+                ls.numberOfNodes++;
+                ls.nodesPerLevel.merge(n.level, 1, Integer::sum);
+                if(!n.isRequired()) {
+                    ls.numberOfOrphanedNodes++;
+                }
+                if(n instanceof AndNode) {
+                    ls.numberOfAliases += ((AndNode) n).numberOfAliases;
+                }
+            }
+        }
+
+        ls.sharingRatio = !referencedNodes.isEmpty() ? sharedReferences / (double) referencedNodes.size() : 1.0;
+        return ls;
+    }
+
+
+    /**
+     * Returns the lattice nodes the or-node depends on, excluding the nodes that are currently suspended. The parents
+     * of each node are copied while holding its read lock, but no two locks are held at the same time, so that the
+     * traversal cannot deadlock with the creation of new and-nodes.
+     */
+    public static Set<Node> getDependencies(OrNode n) {
+        Set<Node> dependencies = new TreeSet<>();
+        ArrayDeque<Provider<? extends Node>> queue = new ArrayDeque<>();
+
+        n.lock.acquireReadLock();
+        try {
+            for (OrNode.OrEntry oe : n.andParents) {
+                queue.add(oe.parent);
+            }
+        } finally {
+            n.lock.releaseReadLock();
+        }
+
+        while(!queue.isEmpty()) {
+            Node pn = queue.poll().getIfNotSuspended();
+            if(pn == null || !dependencies.add(pn) || !(pn instanceof AndNode)) continue;
+
+            pn.lock.acquireReadLock();
+            try {
+                for (AndNode.RefValue rv : ((AndNode) pn).parents.values()) {
+                    queue.add(rv.parent);
+                }
+            } finally {
+                pn.lock.releaseReadLock();
+            }
+        }
+        return dependencies;
+    }
+
+
+    /**
+     * Returns the number of lattice nodes the or-node depends on, including the nodes that are currently suspended.
+     * An and-node is only created together with its sub-patterns, as long as their synapses are connected through
+     * relations. The dependencies of an or-entry therefore correspond to the connected subsets of its synapses. They
+     * are counted from the synapse ids of the or-entries and the relations of the synapses, which does not require
+     * to load any of the lattice nodes.
+     */
+    public static int getNumberOfDependencies(OrNode n) {
+        Set<BitSet> subPatterns = new HashSet<>();
+
+        n.lock.acquireReadLock();
+        try {
+            for (OrNode.OrEntry oe : n.andParents) {
+                int[] synIds = oe.synapseIds;
+                int[] adjacent = getAdjacentSynapses(n.neuron, synIds);
+
+                for (int mask = 1; mask < (1 << synIds.length); mask++) {
+                    if (!isConnected(mask, adjacent)) continue;
+
+                    BitSet sp = new BitSet();
+                    for (int i = 0; i < synIds.length; i++) {
+                        if ((mask & (1 << i)) != 0) {
+                            sp.set(synIds[i]);
+                        }
+                    }
+                    subPatterns.add(sp);
+                }
+            }
+        } finally {
+            n.lock.releaseReadLock();
+        }
+        return subPatterns.size();
+    }
+
+
+    /**
+     * Returns for each offset of the or-entry the bit mask of the offsets it is related to. Synapses that are not
+     * known are treated as related to all others.
+     */
+    private static int[] getAdjacentSynapses(Neuron neuron, int[] synIds) {
+        int[] adjacent = new int[synIds.length];
+        for (int i = 0; i < synIds.length; i++) {
+            Synapse s = neuron != null ? neuron.getSynapseById(synIds[i]) : null;
+            for (int j = 0; j < synIds.length; j++) {
+                if (i != j && (s == null || s.relations.containsKey(synIds[j]))) {
+                    adjacent[i] |= 1 << j;
+                    adjacent[j] |= 1 << i;
+                }
+            }
+        }
+        return adjacent;
+    }
+
+
+    private static boolean isConnected(int mask, int[] adjacent) {
+        int reached = Integer.lowestOneBit(mask);
+        int frontier = reached;
+        while (frontier != 0) {
+            int i = Integer.numberOfTrailingZeros(frontier);
+            frontier &= frontier - 1;
+
+            int next = adjacent[i] & mask & ~reached;
+            reached |= next;
+            frontier |= next;
+        }
+        return reached == mask;
+    }
+
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Nodes: " + numberOfNodes + "\n");
+        for(Map.Entry<Integer, Integer> me: nodesPerLevel.entrySet()) {
+            sb.append("  Level " + me.getKey() + ": " + me.getValue() + "\n");
+        }
+        sb.append("Orphaned nodes: " + numberOfOrphanedNodes + "\n");
+        sb.append("Interned patterns: " + numberOfInternedPatterns + "\n");
+        sb.append("Aliases: " + numberOfAliases + "\n");
+        sb.append("Sharing ratio: " + sharingRatio + "\n");
+        return sb.toString();
+    }
+}
@@ -51,6 +51,13 @@ public abstract class Node<T extends Node, A extends NodeActivation<T>> extends
 
     private static final Logger log = LoggerFactory.getLogger(Node.class);
 
+    /**
+     * The version of the serialization format of the logic nodes. Version 1 is the unversioned format, which starts
+     * with the type of the node as a char. Its first byte is always zero, so the versions written explicitly start
+     * at 2. Version 2 stores the pattern key of the and-nodes.
+     */
+    public static final int FORMAT_VERSION = 2;
+
     public TreeMap<AndNode.Refinement, AndNode.RefValue> andChildren;
     public TreeSet<OrNode.OrEntry> orChildren;
 
@@ -62,6 +69,8 @@ public abstract class Node<T extends Node, A extends NodeActivation<T>> extends
     public boolean isDiscovered;
 
     public AtomicInteger numberOfNeuronRefs = new AtomicInteger(0);
+    // The visited mark of the neuron reference counting. It is guarded by Model.neuronRefsLock.
+    private long neuronRefsVisited;
     volatile boolean isRemoved;
 
     // Only the children maps are locked.
@@ -81,8 +90,6 @@ public abstract class Node<T extends Node, A extends NodeActivation<T>> extends
         public List<A> added;
         public List<A> activations;
 
-        public long visited;
-
         public boolean isQueued = false;
         public long queueId;
 
@@ -98,18 +105,27 @@ public abstract class Node<T extends Node, A extends NodeActivation<T>> extends
         if (th == null) {
             if (!create) return null;
 
-            th = new ThreadState();
+            th = createThreadState();
             threads[threadId] = th;
         }
         th.lastUsed = provider.model.docIdCounter.get();
         return th;
     }
 
+
+    ThreadState<T, A> createThreadState() {
+        return new ThreadState<>();
+    }
+
     public abstract AndNode.RefValue extend(int threadId, Document doc, AndNode.Refinement ref, PatternDiscovery.Config patterDiscoveryConfig);
 
     abstract void apply(A act);
 
-    public abstract void discover(A act, PatternDiscovery.Config config);
+    /**
+     * Collects the pairs of activations that might be combined with the activation {@code act} into a new pattern.
+     * This method does not modify the lattice and may be called concurrently for different activations.
+     */
+    public abstract List<PatternDiscovery.Candidate> collectDiscoveryCandidates(A act, PatternDiscovery.Config config);
 
     public abstract void reprocessInputs(Document doc);
 
@@ -137,7 +153,9 @@ public abstract class Node<T extends Node, A extends NodeActivation<T>> extends
     public void postCreate(Document doc) {
         if(doc != null) {
             markedCreated = doc.createV;
-            doc.addedNodes.add(this);
+            synchronized (doc.addedNodes) {
+                doc.addedNodes.add(this);
+            }
         }
     }
 
@@ -288,9 +306,8 @@ public abstract class Node<T extends Node, A extends NodeActivation<T>> extends
 
 
     public void changeNumberOfNeuronRefs(int threadId, long v, int d) {
-        ThreadState th = getThreadState(threadId, true);
-        if (th.visited == v) return;
-        th.visited = v;
+        if (neuronRefsVisited == v) return;
+        neuronRefsVisited = v;
         numberOfNeuronRefs.addAndGet(d);
     }
 
@@ -396,7 +413,18 @@ public abstract class Node<T extends Node, A extends NodeActivation<T>> extends
 
 
     public static Node readNode(DataInput in, Provider p) throws IOException {
-        char type = in.readChar();
+        int version = in.readUnsignedByte();
+        char type;
+        if(version == 0) {
+            // The first byte of the unversioned format is the high byte of the type.
+            type = (char) in.readUnsignedByte();
+            version = 1;
+        } else {
+            if(version > FORMAT_VERSION) {
+                throw new RuntimeException("Unsupported format version " + version + " of node " + p.id + ".");
+            }
+            type = in.readChar();
+        }
         Node n = null;
         switch (type) {
             case 'I':
@@ -411,7 +439,11 @@ public abstract class Node<T extends Node, A extends NodeActivation<T>> extends
         }
         n.provider = p;
 
-        n.readFields(in, p.model);
+        if(n instanceof AndNode) {
+            ((AndNode) n).readFields(in, p.model, version);
+        } else {
+            n.readFields(in, p.model);
+        }
         return n;
     }
 }
@@ -33,8 +33,10 @@ public abstract class NodeActivation<T extends Node> implements Comparable<NodeA
 
     public long visited = -1;
     public Long repropagateV;
+    public boolean isPropagated;
 
-    public TreeMap<Integer, AndNode.Link> outputsToAndNode = new TreeMap<>();
+    // Ordered by the refinement input and the id of the and-node activation.
+    public TreeMap<Long, AndNode.Link> outputsToAndNode = new TreeMap<>();
     public TreeMap<Integer, OrNode.Link> outputsToOrNode = new TreeMap<>();
     public InputNode.Link outputToInputNode;
 
@@ -18,6 +18,7 @@ package network.aika.lattice;
 
 
 import network.aika.*;
+import network.aika.neuron.INeuron;
 import network.aika.neuron.Neuron;
 import network.aika.neuron.Synapse;
 import network.aika.neuron.activation.Activation;
@@ -64,31 +65,28 @@ public class OrNode extends Node<OrNode, Activation> {
 
     public void addInputActivation(OrEntry oe, NodeActivation inputAct) {
         Document doc = inputAct.doc;
+        INeuron n = neuron.get(doc);
+        OrEntry.Plan plan = oe.getPlan(neuron);
 
         Integer begin = null;
         Integer end = null;
 
-        for(int i = 0; i < oe.synapseIds.length; i++) {
-            int synapseId = oe.synapseIds[i];
+        for(int i = 0; i < plan.rangeOffsets.length; i++) {
+            Synapse s = plan.rangeSynapses[i];
+            Activation iAct = inputAct.getInputActivation(plan.rangeOffsets[i]);
 
-            neuron.get(inputAct.doc);
-            Synapse s = neuron.getSynapseById(synapseId);
-            if(s.key.rangeOutput.begin != Range.Mapping.NONE || s.key.rangeOutput.end != Range.Mapping.NONE) {
-                Activation iAct = inputAct.getInputActivation(i);
+            Integer b = s.key.rangeOutput.begin.map(iAct.range);
+            if(b != null) begin = b;
 
-                Integer b = s.key.rangeOutput.begin.map(iAct.range);
-                if(b != null) begin = b;
-
-                Integer e = s.key.rangeOutput.end.map(iAct.range);
-                if(e != null) end = e;
-            }
+            Integer e = s.key.rangeOutput.end.map(iAct.range);
+            if(e != null) end = e;
         }
 
         Range r = new Range(begin, end);
 
-        if(neuron.get(doc).outputText != null) {
+        if(n.outputText != null) {
             begin = r.begin != null ? r.begin : doc.length();
-            end = r.end != null ? r.end : begin + neuron.get(doc).outputText.length();
+            end = r.end != null ? r.end : begin + n.outputText.length();
             r = new Range(begin, end);
         }
 
@@ -96,7 +94,7 @@ public class OrNode extends Node<OrNode, Activation> {
             return;
         }
 
-        Activation act = lookupActivation(doc, r, oe, inputAct);
+        Activation act = lookupActivation(doc, n, r, oe, inputAct);
 
         if(act == null) {
             act = new Activation(doc.activationIdCounter++, doc, r, this);
@@ -110,35 +108,35 @@ public class OrNode extends Node<OrNode, Activation> {
     }
 
 
-    private Activation lookupActivation(Document doc, Range r, OrEntry oe, NodeActivation inputAct) {
-        x: for(Activation act: neuron.get(doc)
-                .getThreadState(doc.threadId, true)
+    /**
+     * Looks up an existing activation with the same range. An activation is only reused if for each identity synapse
+     * of its input links, one of these links refers to the same input activation as the current input. Instead of
+     * comparing all the input links of an activation, the links are probed once per identity synapse.
+     *
+     * <p>There is no hash index over the identity signature of the activations. The candidates are the activations
+     * of the neuron with the same range, and each probe is a lookup in the sorted input links of a candidate, hence
+     * the costs are logarithmic in the number of input links rather than constant.
+     */
+    private Activation lookupActivation(Document doc, INeuron n, Range r, OrEntry oe, NodeActivation inputAct) {
+        x: for(Activation act: n.getThreadState(doc.threadId, true)
                 .getActivationsByRangeBegin(r, true, r, false)
                 ) {
-            Synapse ls = null;
-            boolean matched = false;
-            for(Activation.Link l: act.getInputLinksOrderedBySynapse()) {
-                if(ls != null && ls != l.synapse) {
-                    if(!matched) {
-                        continue x;
-                    }
-                    matched = false;
-                }
+            if(!act.hasInputLinks()) {
+                continue;
+            }
 
-                if (l.synapse.key.identity) {
-                    Integer i = oe.revSynapseIds.get(l.synapse.id);
-                    if(i != null && l.input == inputAct.getInputActivation(i)) {
-                        matched = true;
-                    }
-                } else {
-                    matched = true;
+            for(Synapse s = act.getNextInputSynapse(null); s != null; s = act.getNextInputSynapse(s)) {
+                if(!s.key.identity) {
+                    continue;
                 }
-                ls = l.synapse;
-            }
 
-            if(matched) {
-                return act;
+                Integer i = oe.revSynapseIds.get(s.id);
+                Activation iAct = i != null ? inputAct.getInputActivation(i) : null;
+                if(iAct == null || !act.hasInputLink(s, iAct)) {
+                    continue x;
+                }
             }
+            return act;
         }
         return null;
     }
@@ -169,7 +167,8 @@ public class OrNode extends Node<OrNode, Activation> {
 
 
     @Override
-    public void discover(Activation act, PatternDiscovery.Config config) {
+    public List<PatternDiscovery.Candidate> collectDiscoveryCandidates(Activation act, PatternDiscovery.Config config) {
+        return Collections.emptyList();
     }
 
 
@@ -201,7 +200,9 @@ public class OrNode extends Node<OrNode, Activation> {
 
 
     public void addInput(int[] synapseIds, int threadId, Node in, boolean andMode) {
-        in.changeNumberOfNeuronRefs(threadId, provider.model.visitedCounter.addAndGet(1), 1);
+        synchronized (provider.model.neuronRefsLock) {
+            in.changeNumberOfNeuronRefs(threadId, provider.model.visitedCounter.addAndGet(1), 1);
+        }
 
         OrEntry oe = new OrEntry(synapseIds, in.provider, provider);
         in.addOrChild(oe);
@@ -233,7 +234,9 @@ public class OrNode extends Node<OrNode, Activation> {
     public void removeParents(int threadId) {
         for (OrEntry oe : andParents) {
             Node pn = oe.parent.get();
-            pn.changeNumberOfNeuronRefs(threadId, provider.model.visitedCounter.addAndGet(1), -1);
+            synchronized (provider.model.neuronRefsLock) {
+                pn.changeNumberOfNeuronRefs(threadId, provider.model.visitedCounter.addAndGet(1), -1);
+            }
             pn.removeOrChild(oe);
             pn.setModified();
         }
@@ -274,10 +277,11 @@ public class OrNode extends Node<OrNode, Activation> {
     @Override
     public void write(DataOutput out) throws IOException {
         out.writeBoolean(false);
+        out.writeByte(FORMAT_VERSION);
         out.writeChar('O');
         super.write(out);
 
-        out.writeInt(neuron.id);
+        neuron.writeId(out);
 
         out.writeInt(andParents.size());
         for(OrEntry oe: andParents) {
@@ -311,6 +315,20 @@ public class OrNode extends Node<OrNode, Activation> {
         public Provider<? extends Node> parent;
         public Provider<OrNode> child;
 
+        private volatile Plan plan;
+
+        /**
+         * Precomputed information required to map an input activation of this entry to an activation of the
+         * neuron. It is recomputed whenever the synapses of the neuron change.
+         */
+        static class Plan {
+            int weightsVersion;
+
+            // The offsets of the synapses of this entry that provide the begin or end of the output range.
+            int[] rangeOffsets;
+            Synapse[] rangeSynapses;
+        }
+
         private OrEntry() {}
 
         public OrEntry(int[] synapseIds, Provider<? extends Node> parent, Provider<OrNode> child) {
@@ -323,6 +341,36 @@ public class OrNode extends Node<OrNode, Activation> {
             this.child = child;
         }
 
+        Plan getPlan(Neuron neuron) {
+            INeuron n = neuron.get();
+            Plan p = plan;
+            if(p != null && p.weightsVersion == n.weightsVersion) {
+                return p;
+            }
+
+            p = new Plan();
+            p.weightsVersion = n.weightsVersion;
+
+            List<Integer> offsets = new ArrayList<>();
+            List<Synapse> syns = new ArrayList<>();
+            for(int i = 0; i < synapseIds.length; i++) {
+                Synapse s = neuron.getSynapseById(synapseIds[i]);
+                if(s.key.rangeOutput.begin != Range.Mapping.NONE || s.key.rangeOutput.end != Range.Mapping.NONE) {
+                    offsets.add(i);
+                    syns.add(s);
+                }
+            }
+            p.rangeOffsets = new int[offsets.size()];
+            for(int i = 0; i < p.rangeOffsets.length; i++) {
+                p.rangeOffsets[i] = offsets.get(i);
+            }
+            p.rangeSynapses = syns.toArray(new Synapse[syns.size()]);
+
+            plan = p;
+            return p;
+        }
+
+
         @Override
         public void write(DataOutput out) throws IOException {
             out.writeInt(synapseIds.length);
@@ -331,8 +379,8 @@ public class OrNode extends Node<OrNode, Activation> {
                 out.writeBoolean(ofs != null);
                 out.writeInt(ofs);
             }
-            out.writeInt(parent.id);
-            out.writeInt(child.id);
+            parent.writeId(out);
+            child.writeId(out);
         }
 
         public static OrEntry read(DataInput in, Model m)  throws IOException {
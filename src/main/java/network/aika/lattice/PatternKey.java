@@ -0,0 +1,342 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.lattice;
+
+
+import network.aika.Model;
+import network.aika.Provider;
+import network.aika.Writable;
+import network.aika.lattice.AndNode.RefValue;
+import network.aika.lattice.AndNode.Refinement;
+import network.aika.neuron.relation.Relation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * The {@code PatternKey} is a canonical representation of the pattern of an and-node. It consists of the input
+ * nodes of the pattern sorted by their ids and of the relations between each pair of inputs. The offsets of an
+ * and-node depend on the order in which the pattern has been extended, hence the inputs of the same input node
+ * are permuted until the smallest relation map is found. Two and-nodes with equal keys therefore match exactly the
+ * same activations.
+ *
+ * <p>The key is stored together with its and-node, so that a node can be interned when it is loaded without loading
+ * its ancestors. If the ids of the input nodes are translated while the key is written, the key is canonicalized
+ * again for the new ids.
+ *
+ * @author Lukas Molzberger
+ */
+public class PatternKey implements Comparable<PatternKey>, Writable {
+
+    /**
+     * Upper limit of the permutations of equal inputs that are compared. If a pattern contains more permutations,
+     * only the first one is used and equal patterns might not be recognized.
+     */
+    public static int MAX_PERMUTATIONS = 720;
+
+    private int[] inputs;
+    private Relation[] relations;
+
+    // Maps the offsets of the and-node to the positions within this key.
+    int[] positions;
+
+
+    private PatternKey() {}
+
+
+    private PatternKey(int[] inputs, Relation[] relations, int[] positions) {
+        this.inputs = inputs;
+        this.relations = relations;
+        this.positions = positions;
+    }
+
+
+    public static PatternKey create(int level, SortedMap<Refinement, RefValue> parents) {
+        int[] inputIds = new int[level];
+        Relation[][] rels = new Relation[level][level];
+        collectPattern(parents, inputIds, rels);
+
+        return canonicalize(inputIds, rels);
+    }
+
+
+    /**
+     * Sorts the inputs of a pattern by their ids and chooses the order of equal inputs with the smallest relations.
+     * The positions of the resulting key are indexed by the offsets of the given inputs.
+     */
+    private static PatternKey canonicalize(int[] inputIds, Relation[][] rels) {
+        int level = inputIds.length;
+        Integer[] sortedOffsets = new Integer[level];
+        for(int i = 0; i < level; i++) {
+            sortedOffsets[i] = i;
+        }
+        Arrays.sort(sortedOffsets, (o1, o2) -> Integer.compare(inputIds[o1], inputIds[o2]));
+
+        int[] inputs = new int[level];
+        for(int i = 0; i < level; i++) {
+            inputs[i] = inputIds[sortedOffsets[i]];
+        }
+
+        Search s = new Search(inputIds, inputs, rels);
+        s.search(0);
+
+        int[] positions = new int[level];
+        for(int i = 0; i < level; i++) {
+            positions[s.bestOrder[i]] = i;
+        }
+        return new PatternKey(inputs, s.bestRelations, positions);
+    }
+
+
+    /**
+     * Collects the inputs and relations of a pattern. The refinements only contain the relations of the refined
+     * input, the remaining ones are taken from the pattern of the first parent.
+     */
+    private static void collectPattern(SortedMap<Refinement, RefValue> parents, int[] inputIds, Relation[][] rels) {
+        boolean first = true;
+        for(Map.Entry<Refinement, RefValue> me: parents.entrySet()) {
+            Refinement ref = me.getKey();
+            RefValue rv = me.getValue();
+
+            if(first) {
+                Node pn = rv.parent.get();
+                int pl = rv.offsets.length;
+                int[] parentInputIds = new int[pl];
+                Relation[][] parentRels = new Relation[pl][pl];
+                if(pn instanceof AndNode) {
+                    collectPattern(((AndNode) pn).parents, parentInputIds, parentRels);
+                } else {
+                    parentInputIds[0] = pn.provider.id;
+                }
+
+                for(int i = 0; i < pl; i++) {
+                    Integer ci = rv.offsets[i];
+                    if(ci == null) continue;
+                    inputIds[ci] = parentInputIds[i];
+
+                    for(int j = 0; j < pl; j++) {
+                        Integer cj = rv.offsets[j];
+                        if(cj != null && rels[ci][cj] == null) {
+                            rels[ci][cj] = parentRels[i][j];
+                        }
+                    }
+                }
+                first = false;
+            }
+
+            int o = rv.refOffset;
+            inputIds[o] = ref.input.id;
+
+            for(int i = 0; i < ref.relations.length(); i++) {
+                Integer p = rv.offsets[i];
+                Relation rel = ref.relations.get(i);
+                if(p == null || rel == null) continue;
+
+                if(rels[o][p] == null) {
+                    rels[o][p] = rel;
+                }
+                if(rels[p][o] == null) {
+                    rels[p][o] = rel.invert();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the key of the same pattern, after the ids of the input nodes have been translated by the given mapping.
+     * The positions of the result are still indexed by the offsets of the and-node.
+     */
+    PatternKey map(Provider.IdMapping mapping) {
+        int level = inputs.length;
+        int[] inputIds = new int[level];
+        Relation[][] rels = new Relation[level][level];
+        int k = 0;
+        for(int i = 0; i < level; i++) {
+            inputIds[i] = mapping.getId(inputs[i]);
+            for(int j = i + 1; j < level; j++) {
+                Relation rel = relations[k++];
+                if(rel != null) {
+                    rels[i][j] = rel;
+                    rels[j][i] = rel.invert();
+                }
+            }
+        }
+
+        PatternKey mk = canonicalize(inputIds, rels);
+        int[] mappedPositions = new int[level];
+        for(int i = 0; i < level; i++) {
+            mappedPositions[i] = mk.positions[positions[i]];
+        }
+        return new PatternKey(mk.inputs, mk.relations, mappedPositions);
+    }
+
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        if(out instanceof Provider.IdMapping) {
+            map((Provider.IdMapping) out).writeFields(out);
+        } else {
+            writeFields(out);
+        }
+    }
+
+
+    private void writeFields(DataOutput out) throws IOException {
+        out.writeInt(inputs.length);
+        for(int i = 0; i < inputs.length; i++) {
+            out.writeInt(inputs[i]);
+            out.writeInt(positions[i]);
+        }
+        for(Relation rel: relations) {
+            out.writeBoolean(rel != null);
+            if(rel != null) {
+                rel.write(out);
+            }
+        }
+    }
+
+
+    @Override
+    public void readFields(DataInput in, Model m) throws IOException {
+        int level = in.readInt();
+        inputs = new int[level];
+        positions = new int[level];
+        for(int i = 0; i < level; i++) {
+            inputs[i] = in.readInt();
+            positions[i] = in.readInt();
+        }
+        relations = new Relation[(level * (level - 1)) / 2];
+        for(int i = 0; i < relations.length; i++) {
+            if(in.readBoolean()) {
+                relations[i] = Relation.read(in, m);
+            }
+        }
+    }
+
+
+    public static PatternKey read(DataInput in, Model m) throws IOException {
+        PatternKey pk = new PatternKey();
+        pk.readFields(in, m);
+        return pk;
+    }
+
+
+    private static Relation[] getRelations(int[] order, Relation[][] rels) {
+        int n = order.length;
+        Relation[] result = new Relation[(n * (n - 1)) / 2];
+        int k = 0;
+        for(int i = 0; i < n; i++) {
+            for(int j = i + 1; j < n; j++) {
+                result[k++] = rels[order[i]][order[j]];
+            }
+        }
+        return result;
+    }
+
+
+    private static int compare(Relation[] ra, Relation[] rb) {
+        int r = Integer.compare(ra.length, rb.length);
+        if(r != 0) return r;
+
+        for(int i = 0; i < ra.length; i++) {
+            Relation a = ra[i];
+            Relation b = rb[i];
+            if(a == null && b == null) continue;
+            if(a == null) return -1;
+            if(b == null) return 1;
+
+            r = a.compareTo(b);
+            if(r != 0) return r;
+        }
+        return 0;
+    }
+
+
+    @Override
+    public int compareTo(PatternKey pk) {
+        int r = Integer.compare(inputs.length, pk.inputs.length);
+        if(r != 0) return r;
+
+        for(int i = 0; i < inputs.length; i++) {
+            r = Integer.compare(inputs[i], pk.inputs[i]);
+            if(r != 0) return r;
+        }
+        return compare(relations, pk.relations);
+    }
+
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Arrays.toString(inputs));
+        sb.append(Arrays.toString(relations));
+        return sb.toString();
+    }
+
+
+    /**
+     * Enumerates the orders of the offsets that are consistent with the sorted inputs and keeps the one with the
+     * smallest relations.
+     */
+    private static class Search {
+        int[] inputIds;
+        int[] sortedInputs;
+        Relation[][] rels;
+
+        int[] order;
+        boolean[] used;
+        int permutations;
+
+        int[] bestOrder;
+        Relation[] bestRelations;
+
+
+        Search(int[] inputIds, int[] sortedInputs, Relation[][] rels) {
+            this.inputIds = inputIds;
+            this.sortedInputs = sortedInputs;
+            this.rels = rels;
+            order = new int[inputIds.length];
+            used = new boolean[inputIds.length];
+        }
+
+
+        void search(int pos) {
+            if(pos == order.length) {
+                permutations++;
+                Relation[] r = getRelations(order, rels);
+                if(bestRelations == null || compare(r, bestRelations) < 0) {
+                    bestRelations = r;
+                    bestOrder = order.clone();
+                }
+                return;
+            }
+
+            for(int o = 0; o < inputIds.length && permutations < MAX_PERMUTATIONS; o++) {
+                if(!used[o] && inputIds[o] == sortedInputs[pos]) {
+                    used[o] = true;
+                    order[pos] = o;
+                    search(pos + 1);
+                    used[o] = false;
+                }
+            }
+        }
+    }
+}
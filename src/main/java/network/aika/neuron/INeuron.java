@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 
@@ -53,6 +54,20 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
     public static double WEIGHT_TOLERANCE = 0.001;
     public static double TOLERANCE = 0.000001;
 
+    /**
+     * Disjunctive neurons with at least this number of active input links per activation keep running sums of the
+     * bounds, which are updated only for the inputs that have changed.
+     */
+    public static int SPARSE_FAN_IN_THRESHOLD = 1000;
+
+    /**
+     * The version of the serialization format of the neurons and their synapses. Version 1 is the unversioned format
+     * which referenced the activation and distance functions by their name. It starts with the flag of the label,
+     * so the versions written explicitly start at 2. Version 2 references the functions by their id and version 3
+     * adds the maximum and-node sizes.
+     */
+    public static final int FORMAT_VERSION = 3;
+
     public String label;
     public Type type;
 
@@ -87,8 +102,28 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
 
     public volatile int numDisjunctiveSynapses = 0;
 
+    /**
+     * Is incremented whenever the weights or the input synapses of this neuron change. It invalidates the
+     * compiled evaluation plans of the activations of this neuron.
+     */
+    public volatile int weightsVersion = 0;
+
     public Writable statistic;
 
+    /**
+     * Overrides the maximum number of inputs of the and-nodes that are created for this neuron by the converter. If
+     * not set, the size is chosen adaptively, starting with {@code Converter.MAX_AND_NODE_SIZE}.
+     */
+    public Integer maxAndNodeSize;
+    public int adaptiveMaxAndNodeSize;
+
+    /**
+     * The activations of this neuron that have been created by the or-node and the ones among them whose upper bound
+     * never exceeded zero. These are updated when the activations of a document are cleared.
+     */
+    public final AtomicLong numberOfCandidateActivations = new AtomicLong();
+    public final AtomicLong numberOfFalsePositiveActivations = new AtomicLong();
+
     public ActivationFunction activationFunction = ActivationFunction.RECTIFIED_SCALED_LOGISTIC_SIGMOID;
 
 
@@ -289,6 +324,20 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
      * @param input
      */
     public Activation addInput(Document doc, Activation.Builder input) {
+        return addInput(doc, input, true);
+    }
+
+
+    /**
+     * Registers an input activation. If {@code propagate} is false, the activation is only queued and the caller
+     * is responsible for calling {@code doc.propagate()}.
+     *
+     * @param doc
+     * @param input
+     * @param propagate
+     * @return
+     */
+    public Activation addInput(Document doc, Activation.Builder input, boolean propagate) {
         assert input.range.begin <= input.range.end;
 
         Activation act = getThreadState(doc.threadId, true).getActivationByRange(input.range);
@@ -318,7 +367,9 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
 
         propagate(act);
 
-        doc.propagate();
+        if(propagate) {
+            doc.propagate();
+        }
 
         return act;
     }
@@ -380,7 +431,37 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
 
 
     public void clearActivations(Document doc) {
-        clearActivations(doc.threadId);
+        ThreadState th = getThreadState(doc.threadId, false);
+        if (th == null) return;
+
+        long candidates = 0;
+        long falsePositives = 0;
+        for(Activation act: th.getActivations()) {
+            if(act.inputValue == null) {
+                candidates++;
+                if(act.upperBound <= 0.0) {
+                    falsePositives++;
+                }
+            }
+        }
+        numberOfCandidateActivations.addAndGet(candidates);
+        numberOfFalsePositiveActivations.addAndGet(falsePositives);
+
+        th.clearActivations();
+    }
+
+
+    public int getMaxAndNodeSize() {
+        if(maxAndNodeSize != null) {
+            return maxAndNodeSize;
+        }
+        return Converter.ADAPTIVE_AND_NODE_SIZE && adaptiveMaxAndNodeSize > 0 ? adaptiveMaxAndNodeSize : Converter.MAX_AND_NODE_SIZE;
+    }
+
+
+    public double getFalsePositiveRate() {
+        long candidates = numberOfCandidateActivations.get();
+        return candidates > 0 ? numberOfFalsePositiveActivations.get() / (double) candidates : 0.0;
     }
 
 
@@ -402,6 +483,8 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
     public void write(DataOutput out) throws IOException {
         out.writeBoolean(true);
 
+        out.writeByte(FORMAT_VERSION);
+
         out.writeBoolean(label != null);
         if(label != null) {
             out.writeUTF(label);
@@ -439,13 +522,19 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
 
         out.writeInt(numDisjunctiveSynapses);
 
-        out.writeUTF(activationFunction.name());
+        out.writeBoolean(maxAndNodeSize != null);
+        if(maxAndNodeSize != null) {
+            out.writeInt(maxAndNodeSize);
+        }
+        out.writeInt(adaptiveMaxAndNodeSize);
+
+        out.writeInt(activationFunction.id);
 
-        out.writeInt(outputNode.id);
+        outputNode.writeId(out);
 
         out.writeBoolean(node != null);
         if (node != null) {
-            out.writeInt(node.id);
+            node.writeId(out);
         }
 
         out.writeInt(numberOfInputSynapses);
@@ -480,7 +569,19 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
 
     @Override
     public void readFields(DataInput in, Model m) throws IOException {
-        if(in.readBoolean()) {
+        int version = in.readUnsignedByte();
+        boolean hasLabel;
+        if(version <= 1) {
+            hasLabel = version == 1;
+            version = 1;
+        } else {
+            if(version > FORMAT_VERSION) {
+                throw new RuntimeException("Unsupported format version " + version + " of neuron " + provider.id + ".");
+            }
+            hasLabel = in.readBoolean();
+        }
+
+        if(hasLabel) {
             label = in.readUTF();
         }
 
@@ -513,7 +614,18 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
 
         numDisjunctiveSynapses = in.readInt();
 
-        activationFunction = ActivationFunction.valueOf(in.readUTF());
+        if(version >= 3) {
+            if(in.readBoolean()) {
+                maxAndNodeSize = in.readInt();
+            }
+            adaptiveMaxAndNodeSize = in.readInt();
+        }
+
+        if(version >= 2) {
+            activationFunction = m.getActivationFunction(in.readInt());
+        } else {
+            activationFunction = ActivationFunction.getPredefined(in.readUTF());
+        }
 
         outputNode = m.lookupNodeProvider(in.readInt());
 
@@ -524,7 +636,7 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
 
         numberOfInputSynapses = in.readInt();
         while (in.readBoolean()) {
-            Synapse syn = Synapse.read(in, m);
+            Synapse syn = Synapse.read(in, m, version);
             inputSynapses.put(syn, syn);
 
             if(in.readBoolean()) {
@@ -533,7 +645,7 @@ public class INeuron extends AbstractNode<Neuron, Activation> implements Compara
         }
 
         while (in.readBoolean()) {
-            Synapse syn = Synapse.read(in, m);
+            Synapse syn = Synapse.read(in, m, version);
             outputSynapses.put(syn, syn);
         }
 
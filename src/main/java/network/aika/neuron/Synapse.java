@@ -188,6 +188,8 @@ public class Synapse implements Writable {
             out.registerPassiveInputSynapse(this);
         }
 
+        out.weightsVersion++;
+
         (dir ? in : out).lock.releaseWriteLock();
         (dir ? out : in).lock.releaseWriteLock();
     }
@@ -261,6 +263,8 @@ public class Synapse implements Writable {
 
         removeLinkInternal(in, out);
 
+        out.weightsVersion++;
+
         (dir ? in : out).lock.releaseWriteLock();
         (dir ? out : in).lock.releaseWriteLock();
     }
@@ -346,8 +350,8 @@ public class Synapse implements Writable {
         out.writeInt(id);
         key.write(out);
 
-        out.writeInt(input.id);
-        out.writeInt(output.id);
+        input.writeId(out);
+        output.writeId(out);
 
         out.writeInt(relations.size());
         for(Map.Entry<Integer, Relation> me: relations.entrySet()) {
@@ -357,7 +361,7 @@ public class Synapse implements Writable {
 
         out.writeBoolean(distanceFunction != null);
         if(distanceFunction != null) {
-            out.writeUTF(distanceFunction.name());
+            out.writeInt(distanceFunction.id);
         }
 
         out.writeDouble(weight);
@@ -375,6 +379,14 @@ public class Synapse implements Writable {
 
     @Override
     public void readFields(DataInput in, Model m) throws IOException {
+        readFields(in, m, INeuron.FORMAT_VERSION);
+    }
+
+
+    /**
+     * Reads the synapse in the given format version of the neuron it is stored with.
+     */
+    public void readFields(DataInput in, Model m, int version) throws IOException {
         id = in.readInt();
         key = Key.read(in, m);
 
@@ -389,7 +401,11 @@ public class Synapse implements Writable {
         }
 
         if(in.readBoolean()) {
-            distanceFunction = DistanceFunction.valueOf(in.readUTF());
+            if(version >= 2) {
+                distanceFunction = m.getDistanceFunction(in.readInt());
+            } else {
+                distanceFunction = DistanceFunction.getPredefined(in.readUTF());
+            }
         }
 
         weight = in.readDouble();
@@ -406,8 +422,13 @@ public class Synapse implements Writable {
 
 
     public static Synapse read(DataInput in, Model m) throws IOException {
+        return read(in, m, INeuron.FORMAT_VERSION);
+    }
+
+
+    public static Synapse read(DataInput in, Model m, int version) throws IOException {
         Synapse s = new Synapse();
-        s.readFields(in, m);
+        s.readFields(in, m, version);
         return s;
     }
 
@@ -1,5 +1,6 @@
 package network.aika.neuron.activation;
 
+import network.aika.ActivationFunction;
 import network.aika.Document;
 import network.aika.Utils;
 import network.aika.Writable;
@@ -63,8 +64,12 @@ public final class Activation extends OrActivation {
     public double upperBound;
     public double lowerBound;
 
+    /**
+     * The upper bound that has been propagated to the output activations last.
+     */
+    private double propagatedUpperBound;
+
     public State avgState;
-    public Map<Integer, State> searchStates;
 
     public Rounds rounds = new Rounds();
     public Rounds finalRounds = rounds;
@@ -77,7 +82,6 @@ public final class Activation extends OrActivation {
     public long currentStateV;
     public StateChange currentStateChange;
     public long markedDirty;
-    public long markedPredecessor;
 
     public double errorSignal;
     public Double targetValue;
@@ -90,12 +94,19 @@ public final class Activation extends OrActivation {
     public Decision decision = Decision.UNKNOWN;
     public Decision finalDecision = Decision.UNKNOWN;
     public Candidate candidate;
+    public int recurrentComponent = -1;
     private long visitedState;
     public long markedAncestor;
 
 
     private List<Activation> conflicts;
 
+    private EvaluationPlan evaluationPlan;
+
+    private BitSet predecessors;
+    private long predecessorsLinkVersion;
+    private boolean computingPredecessors;
+
 
     public Activation(int id, Document doc, OrNode n) {
         super(id, doc, n);
@@ -159,11 +170,37 @@ public final class Activation extends OrActivation {
                     selectedInputLinks.add(l);
                 }
                 inputLinks.put(l, l);
+                evaluationPlan = null;
                 break;
         }
     }
 
 
+    EvaluationPlan getEvaluationPlan() {
+        EvaluationPlan p = evaluationPlan;
+        if(p == null || !p.isValid()) {
+            p = new EvaluationPlan(this, getINeuron(), inputLinks.values());
+            evaluationPlan = p;
+        }
+        return p;
+    }
+
+
+    /**
+     * Records an input link whose input bounds have changed. The link is only recorded if the running bound sums
+     * of a sparse evaluation plan need to be updated. Since the links are marked by their index in the plan, a link
+     * that changes several times before the next bound computation is only updated once.
+     *
+     * @param l
+     */
+    public void addChangedInputLink(Link l) {
+        EvaluationPlan p = evaluationPlan;
+        if(p != null && p.sparse && p.sumsInitialized && l.planIndex >= 0 && l.output == this && p.inputs[l.planIndex] == l.input) {
+            p.changedLinks.set(l.planIndex);
+        }
+    }
+
+
     public Link getLinkBySynapseId(int synapseId) {
         for(Link l: inputLinks.values()) {
             if(!l.passive && l.synapse.id == synapseId) {
@@ -196,6 +233,31 @@ public final class Activation extends OrActivation {
     }
 
 
+    public boolean hasInputLinks() {
+        return !inputLinks.isEmpty();
+    }
+
+
+    /**
+     * Returns the synapse of the input links following the synapse {@code syn}, or the first one if {@code syn} is
+     * null. The remaining links of the same synapse are skipped.
+     */
+    public Synapse getNextInputSynapse(Synapse syn) {
+        Link l;
+        if(syn == null) {
+            l = !inputLinks.isEmpty() ? inputLinks.firstKey() : null;
+        } else {
+            l = inputLinks.higherKey(new Link(syn, MAX_ACTIVATION, MAX_ACTIVATION, false));
+        }
+        return l != null ? l.synapse : null;
+    }
+
+
+    public boolean hasInputLink(Synapse syn, Activation input) {
+        return inputLinks.containsKey(new Link(syn, input, this, false));
+    }
+
+
     public Stream<Link> getInputLinksBySynapse(boolean includePassive, Synapse syn) {
         Stream<Link> s = inputLinks.subMap(
                 new Link(syn, MIN_ACTIVATION, MIN_ACTIVATION, false),
@@ -216,17 +278,21 @@ public final class Activation extends OrActivation {
     }
 
 
-    public double process(SearchNode sn, int round, long v) {
+    public double process(Map<Activation, StateChange> changes, int round, long v) {
         double delta = 0.0;
         State s;
         if(inputValue != null) {
             s = new State(inputValue, inputValue, 1.0, 0.0, 0.0, 0, 0.0);
         } else {
             s = computeValueAndWeight(round);
+
+            if(recurrentComponent >= 0 && round >= 2 && Document.RECURRENT_DAMPING > 0.0) {
+                s = dampOscillation(round, s);
+            }
         }
 
         if (round == 0 || !rounds.get(round).equalsWithWeights(s)) {
-            saveOldState(sn.modifiedActs, v);
+            saveOldState(changes, v);
 
             State oldState = rounds.get(round);
 
@@ -261,49 +327,86 @@ public final class Activation extends OrActivation {
     }
 
 
+    /**
+     * If the value of this activation changes its direction between two consecutive rounds, the new state is blended
+     * with the state of the previous round.
+     */
+    private State dampOscillation(int round, State s) {
+        State s1 = rounds.get(round - 1);
+        State s2 = rounds.get(round - 2);
+        if(s1 == null || s2 == null || (s.value - s1.value) * (s1.value - s2.value) >= 0.0) {
+            return s;
+        }
+
+        double d = Document.RECURRENT_DAMPING;
+        return new State(
+                (1.0 - d) * s.value + d * s1.value,
+                (1.0 - d) * s.posValue + d * s1.posValue,
+                s.p,
+                (1.0 - d) * s.net + d * s1.net,
+                (1.0 - d) * s.posNet + d * s1.posNet,
+                s.fired,
+                (1.0 - d) * s.weight + d * s1.weight
+        );
+    }
+
+
     public State computeValueAndWeight(int round) {
-        INeuron n = getINeuron();
+        EvaluationPlan p = getEvaluationPlan();
+        INeuron n = p.neuron;
         double net = n.biasSum;
         double posNet = n.biasSum;
 
         int fired = -1;
 
-        long v = doc.visitedCounter++;
-        markPredecessor(v, 0);
+        BitSet predecessors = getPredecessors();
 
-        for (InputState is: getInputStates(round, v)) {
-            Synapse s = is.l.synapse;
-            Activation iAct = is.l.input;
+        for (int g = 0; g < p.numberOfGroups; g++) {
+            boolean negative = p.negative[g];
+            boolean recurrent = p.recurrent[g];
+
+            int maxInput = -1;
+            State maxInputState = null;
+            for (int i = p.groupBegin[g]; i < p.groupBegin[g + 1]; i++) {
+                State s = p.inputs[i].getInputState(round, recurrent, negative, predecessors);
+                if (maxInputState == null || maxInputState.value < s.value) {
+                    maxInput = i;
+                    maxInputState = s;
+                }
+            }
+
+            Activation iAct = p.inputs[maxInput];
 
             if (iAct == this) continue;
 
-            double x = Math.min(s.limit, is.s.value) * s.weight;
-            if(s.distanceFunction != null) {
-                x *= s.distanceFunction.f(iAct, this);
-            }
+            double x = Math.min(p.limits[g], maxInputState.value) * p.weights[g];
+            x *= p.distances[maxInput];
+
             net += x;
-            if(!s.isNegative()) {
+            if(!negative) {
                 posNet += x;
             }
 
-            if (!s.key.isRecurrent && !s.isNegative() && net >= 0.0 && fired < 0) {
+            if (!recurrent && !negative && net >= 0.0 && fired < 0) {
                 fired = iAct.rounds.get(round).fired + 1;
             }
         }
 
-        if(n.passiveInputSynapses != null) {
-            for(Synapse s: n.passiveInputSynapses.values()) {
-                double x = s.weight * s.input.get(doc).passiveInputFunction.getActivationValue(s, this);
+        for(int i = 0; i < p.numberOfPassiveInputs; i++) {
+            double x = p.getPassiveInputValue(i, this);
 
-                net += x;
-                if(!s.isNegative()) {
-                    posNet += x;
-                }
+            net += x;
+            if(!p.passiveNegative[i]) {
+                posNet += x;
             }
         }
 
-        double actValue = n.activationFunction.f(net);
-        double posActValue = n.activationFunction.f(posNet);
+        double[] buf = doc.activationFunctionBuffer;
+        buf[0] = net;
+        buf[1] = posNet;
+        n.activationFunction.f(buf, buf, 2);
+        double actValue = buf[0];
+        double posActValue = buf[1];
 
         double w = Math.min(-n.negRecSum, net);
 
@@ -335,37 +438,32 @@ public final class Activation extends OrActivation {
 
 
     public boolean isActiveable() {
-        INeuron n = getINeuron();
-        double net = n.biasSum;
+        EvaluationPlan p = getEvaluationPlan();
+        double net = p.neuron.biasSum;
 
-        for (Link l: inputLinks.values()) {
-            if(l.synapse.inactive || l.passive) {
-                continue;
-            }
+        for (int g = 0; g < p.numberOfGroups; g++) {
+            boolean negative = p.negative[g];
+            double limit = p.limits[g];
+            double weight = p.weights[g];
 
-            Synapse s = l.synapse;
-            Activation iAct = l.input;
+            for (int i = p.groupBegin[g]; i < p.groupBegin[g + 1]; i++) {
+                Activation iAct = p.inputs[i];
 
-            if (iAct == this) continue;
+                if (iAct == this) continue;
 
-            double iv = 0.0;
-            if(!l.synapse.isNegative() && l.input.decision != EXCLUDED) {
-                iv = Math.min(l.synapse.limit, l.input.upperBound);
-            }
+                double iv = 0.0;
+                if (!negative && iAct.decision != EXCLUDED) {
+                    iv = Math.min(limit, iAct.upperBound);
+                }
 
-            double x = iv * s.weight;
-            if(s.distanceFunction != null) {
-                x *= s.distanceFunction.f(iAct, this);
+                double x = iv * weight;
+                x *= p.distances[i];
+                net += x;
             }
-            net += x;
         }
 
-        if(n.passiveInputSynapses != null) {
-            for(Synapse s: n.passiveInputSynapses.values()) {
-                double x = s.weight * s.input.get(doc).passiveInputFunction.getActivationValue(s, this);
-
-                net += x;
-            }
+        for(int i = 0; i < p.numberOfPassiveInputs; i++) {
+            net += p.getPassiveInputValue(i, this);
         }
 
         return net > 0.0;
@@ -374,13 +472,23 @@ public final class Activation extends OrActivation {
 
     public void processBounds() {
         double oldUpperBound = upperBound;
+        double oldLowerBound = lowerBound;
 
         computeBounds();
 
-        if(Math.abs(upperBound - oldUpperBound) > 0.01) {
+        boolean propagate = Math.abs(upperBound - propagatedUpperBound) > Document.BOUND_PROPAGATION_EPSILON;
+        if(propagate) {
+            propagatedUpperBound = upperBound;
+        }
+
+        if(propagate || upperBound != oldUpperBound || lowerBound != oldLowerBound) {
             for(Link l: outputLinks.values()) {
                 if(!l.passive) {
-                    doc.ubQueue.add(l);
+                    if(propagate) {
+                        doc.ubQueue.add(l);
+                    } else {
+                        l.output.addChangedInputLink(l);
+                    }
                 }
             }
         }
@@ -392,51 +500,119 @@ public final class Activation extends OrActivation {
 
 
     public void computeBounds() {
-        INeuron n = getINeuron();
+        EvaluationPlan p = getEvaluationPlan();
+        if(p.sparse) {
+            computeBoundsSparse(p);
+            return;
+        }
+
+        INeuron n = p.neuron;
         double ub = n.biasSum + n.posRecSum;
         double lb = n.biasSum + n.posRecSum;
 
-        long v = doc.visitedCounter++;
-        markPredecessor(v, 0);
+        BitSet predecessors = getPredecessors();
 
-        for (Link l : inputLinks.values()) {
-            Synapse s = l.synapse;
-            if(s.inactive || l.passive) {
-                continue;
-            }
+        for (int g = 0; g < p.numberOfGroups; g++) {
+            boolean negative = p.negative[g];
+            boolean recurrent = p.recurrent[g];
+            double limit = p.limits[g];
+            double weight = p.weights[g];
 
-            Activation iAct = l.input;
+            for (int i = p.groupBegin[g]; i < p.groupBegin[g + 1]; i++) {
+                Activation iAct = p.inputs[i];
 
-            if (iAct == this) continue;
+                if (iAct == this) continue;
 
-            double x = s.weight;
-            if(s.distanceFunction != null) {
-                x *= s.distanceFunction.f(iAct, this);
-            }
+                double x = weight;
+                x *= p.distances[i];
+
+                if (negative) {
+                    if (!recurrent && !iAct.checkSelfReferencing(false, 0, predecessors)) {
+                        ub += Math.min(limit, iAct.lowerBound) * x;
+                    }
 
-            if (s.isNegative()) {
-                if (!s.key.isRecurrent && !iAct.checkSelfReferencing(false, 0, v)) {
-                    ub += Math.min(s.limit, iAct.lowerBound) * x;
+                    lb += limit * x;
+                } else {
+                    ub += Math.min(limit, iAct.upperBound) * x;
+                    lb += Math.min(limit, iAct.lowerBound) * x;
                 }
+            }
+        }
 
-                lb += s.limit * x;
-            } else {
-                ub += Math.min(s.limit, iAct.upperBound) * x;
-                lb += Math.min(s.limit, iAct.lowerBound) * x;
+        for(int i = 0; i < p.numberOfPassiveInputs; i++) {
+            double x = p.getPassiveInputValue(i, this);
+
+            ub += x;
+            lb += x;
+        }
+
+        setBounds(n, ub, lb);
+    }
+
+
+    /**
+     * Computes the bounds from the running sums of a sparse evaluation plan. Only the contributions of the input
+     * links that have changed since the last computation are updated.
+     */
+    private void computeBoundsSparse(EvaluationPlan p) {
+        if(!p.sumsInitialized) {
+            for(int i = 0; i < p.numberOfLinks; i++) {
+                p.updateContribution(this, i);
+            }
+            p.sumsInitialized = true;
+            p.numberOfUpdates = 0;
+        } else {
+            for(int i = p.changedLinks.nextSetBit(0); i >= 0; i = p.changedLinks.nextSetBit(i + 1)) {
+                p.updateContribution(this, i);
             }
+            p.resyncSums();
         }
+        p.changedLinks.clear();
 
-        if(n.passiveInputSynapses != null) {
-            for(Synapse s: n.passiveInputSynapses.values()) {
-                double x = s.weight * s.input.get(doc).passiveInputFunction.getActivationValue(s, this);
+        INeuron n = p.neuron;
+        double ub = n.biasSum + n.posRecSum + p.ubSum;
+        double lb = n.biasSum + n.posRecSum + p.lbSum;
 
-                ub += x;
-                lb += x;
+        if(p.selfReferencingCandidates.length > 0) {
+            BitSet predecessors = getPredecessors();
+            for(int i: p.selfReferencingCandidates) {
+                Activation iAct = p.inputs[i];
+                if (iAct == this) continue;
+
+                int g = p.linkGroups[i];
+                if (!iAct.checkSelfReferencing(false, 0, predecessors)) {
+                    ub += Math.min(p.limits[g], iAct.lowerBound) * p.weights[g] * p.distances[i];
+                }
             }
         }
 
-        upperBound = n.activationFunction.f(ub);
-        lowerBound = n.activationFunction.f(lb);
+        for(int i = 0; i < p.numberOfPassiveInputs; i++) {
+            double x = p.getPassiveInputValue(i, this);
+
+            ub += x;
+            lb += x;
+        }
+
+        setBounds(n, ub, lb);
+    }
+
+
+    private void setBounds(INeuron n, double ub, double lb) {
+        ActivationFunction af = n.activationFunction;
+        if(af.monotone) {
+            double[] buf = doc.activationFunctionBuffer;
+            buf[0] = ub;
+            buf[1] = lb;
+            af.f(buf, buf, 2);
+            upperBound = buf[0];
+            lowerBound = buf[1];
+        } else {
+            // The lower bound assumes that the positive recurrent inputs are active. For a non-monotone function
+            // the net input may also drop below it, if these inputs are not selected.
+            double minNet = lb - n.posRecSum;
+            upperBound = af.getMax(minNet, ub);
+            lowerBound = af.getMin(minNet, ub);
+        }
     }
 
 
@@ -454,48 +630,10 @@ public final class Activation extends OrActivation {
 
 
 
-    private List<InputState> getInputStates(int round, long v) {
-        ArrayList<InputState> tmp = new ArrayList<>();
-        Synapse lastSynapse = null;
-        InputState maxInputState = null;
-        for (Link l : inputLinks.values()) {
-            if(l.synapse.inactive || l.passive) {
-                continue;
-            }
-            if (lastSynapse != null && lastSynapse != l.synapse) {
-                tmp.add(maxInputState);
-                maxInputState = null;
-            }
-
-            State s = l.input.getInputState(round, l.synapse, v);
-            if (maxInputState == null || maxInputState.s.value < s.value) {
-                maxInputState = new InputState(l, s);
-            }
-            lastSynapse = l.synapse;
-        }
-        if (maxInputState != null) {
-            tmp.add(maxInputState);
-        }
-
-        return tmp;
-    }
-
-
-    private static class InputState {
-        public InputState(Link l, State s) {
-            this.l = l;
-            this.s = s;
-        }
-
-        Link l;
-        State s;
-    }
-
-
-    private State getInputState(int round, Synapse s, long v) {
+    private State getInputState(int round, boolean recurrent, boolean negative, BitSet predecessors) {
         State is = State.ZERO;
-        if (s.key.isRecurrent) {
-            if (!s.isNegative() || !checkSelfReferencing(true, 0, v)) {
+        if (recurrent) {
+            if (!negative || !checkSelfReferencing(true, 0, predecessors)) {
                 is = round == 0 ? getInitialState(decision) : rounds.get(round - 1);
             }
         } else {
@@ -532,36 +670,35 @@ public final class Activation extends OrActivation {
             return conflicts;
         }
 
-        long v = doc.visitedCounter++;
-        markPredecessor(v, 0);
+        BitSet predecessors = getPredecessors();
         conflicts = new ArrayList<>();
         for(Link l: inputLinks.values()) {
             if (!l.passive && l.synapse.isNegative() && l.synapse.key.isRecurrent) {
-                l.input.collectIncomingConflicts(conflicts, v);
+                l.input.collectIncomingConflicts(conflicts, predecessors);
             }
         }
-        collectOutgoingConflicts(conflicts, v);
+        collectOutgoingConflicts(conflicts, predecessors);
         return conflicts;
     }
 
 
-    private void collectIncomingConflicts(List<Activation> conflicts, long v) {
-        if(markedPredecessor == v) return;
+    private void collectIncomingConflicts(List<Activation> conflicts, BitSet predecessors) {
+        if(predecessors.get(id)) return;
 
         if (getINeuron().type != INeuron.Type.INHIBITORY) {
             conflicts.add(this);
         } else {
             for (Link l : inputLinks.values()) {
                 if (!l.passive && !l.synapse.isNegative() && !l.synapse.key.isRecurrent) {
-                    l.input.collectIncomingConflicts(conflicts, v);
+                    l.input.collectIncomingConflicts(conflicts, predecessors);
                 }
             }
         }
     }
 
 
-    private void collectOutgoingConflicts(List<Activation> conflicts, long v) {
-        if(markedPredecessor == v) return;
+    private void collectOutgoingConflicts(List<Activation> conflicts, BitSet predecessors) {
+        if(predecessors.get(id)) return;
 
         for(Link l: outputLinks.values()) {
             if(l.passive) {
@@ -572,7 +709,7 @@ public final class Activation extends OrActivation {
                     conflicts.add(l.output);
                 }
             } else if (!l.synapse.isNegative() && !l.synapse.key.isRecurrent) {
-                l.output.collectOutgoingConflicts(conflicts, v);
+                l.output.collectOutgoingConflicts(conflicts, predecessors);
             }
         }
     }
@@ -592,8 +729,17 @@ public final class Activation extends OrActivation {
     }
 
 
-    public boolean checkSelfReferencing(boolean onlySelected, int depth, long v) {
-        if (markedPredecessor == v) {
+    /**
+     * Checks whether one of the given predecessor activations can be reached from this activation by following the
+     * positive input links.
+     *
+     * @param onlySelected
+     * @param depth
+     * @param predecessors the ids of the predecessor activations
+     * @return
+     */
+    public boolean checkSelfReferencing(boolean onlySelected, int depth, BitSet predecessors) {
+        if (predecessors.get(id)) {
             return true;
         }
 
@@ -603,7 +749,7 @@ public final class Activation extends OrActivation {
 
         for (Link l: onlySelected ? selectedInputLinks : inputLinks.values()) {
             if(!l.passive && !l.synapse.isNegative()) {
-                if (l.input.checkSelfReferencing(onlySelected, depth + 1, v)) {
+                if (l.input.checkSelfReferencing(onlySelected, depth + 1, predecessors)) {
                     return true;
                 }
             }
@@ -655,17 +801,58 @@ public final class Activation extends OrActivation {
     }
 
 
-    public void markPredecessor(long v, int depth) {
-        if(depth > MAX_PREDECESSOR_DEPTH) {
+    /**
+     * Returns the ids of this activation and of all the activations it depends on through non recurrent, positive
+     * input links. The set is computed once and only recomputed if an input link of this activation or of one of
+     * its predecessors has been added or changed in the meantime, or if the model has been committed.
+     *
+     * @return
+     */
+    public BitSet getPredecessors() {
+        return getPredecessors(0);
+    }
+
+
+    private BitSet getPredecessors(int depth) {
+        if(predecessors != null && predecessorsLinkVersion == doc.linkVersion) {
+            return predecessors;
+        }
+
+        if(depth > MAX_PREDECESSOR_DEPTH || computingPredecessors) {
             throw new RuntimeException("MAX_PREDECESSOR_DEPTH limit exceeded. Probable cause is a non recurrent loop.");
         }
 
-        markedPredecessor = v;
+        computingPredecessors = true;
+        try {
+            BitSet results = new BitSet();
+            results.set(id);
 
-        for(Link l: inputLinks.values()) {
-            if(!l.passive && !l.synapse.isNegative() && !l.synapse.key.isRecurrent) {
-                l.input.markPredecessor(v, depth + 1);
+            for (Link l : inputLinks.values()) {
+                if (!l.passive && !l.synapse.isNegative() && !l.synapse.key.isRecurrent) {
+                    results.or(l.input.getPredecessors(depth + 1));
+                }
             }
+
+            predecessors = results;
+            predecessorsLinkVersion = doc.linkVersion;
+        } finally {
+            computingPredecessors = false;
+        }
+        return predecessors;
+    }
+
+
+    /**
+     * Discards the cached predecessor sets of this activation and of all its successors. Since a predecessor set is
+     * only computed from the sets of the input activations, an activation without a cached set cannot have a
+     * successor with a cached set, hence the traversal stops there.
+     */
+    private void invalidatePredecessors() {
+        if(predecessors == null) return;
+        predecessors = null;
+
+        for(Link l: outputLinks.values()) {
+            l.output.invalidatePredecessors();
         }
     }
 
@@ -969,6 +1156,11 @@ public final class Activation extends OrActivation {
         public final Activation output;
         public boolean passive;
 
+        /**
+         * The index of this link within the evaluation plan of the output activation or -1 if it is not part of it.
+         */
+        int planIndex = -1;
+
         public static Comparator<Link> INPUT_COMP = (l1, l2) -> {
             int r = Synapse.INPUT_SYNAPSE_COMP.compare(l1.synapse, l2.synapse);
             if (r != 0) return r;
@@ -990,9 +1182,17 @@ public final class Activation extends OrActivation {
         }
 
 
+        public void setPassive(boolean passive) {
+            this.passive = passive;
+            output.evaluationPlan = null;
+            output.invalidatePredecessors();
+        }
+
+
         public void link() {
             input.addLink(INPUT, this);
             output.addLink(OUTPUT, this);
+            output.invalidatePredecessors();
         }
 
         public String toString() {
@@ -24,26 +24,23 @@ public class Candidate  implements Comparable<Candidate> {
     public int[] debugCounts = new int[3];
     public int[] debugDecisionCounts = new int[3];
     public int[] debugComputed = new int[3];
+    public long[] debugProcessTime = new long[2];
 
     public int id;
     int sequence = 0;
+    private boolean conflicting;
 
     public Candidate(Activation act, int id) {
         this.activation = act;
         this.id = id;
         act.candidate = this;
         sequence = act.getSequence();
+        conflicting = !activation.getConflicts().isEmpty();
     }
 
 
     public boolean isConflicting() {
-        return !activation.getConflicts().isEmpty();
-    }
-
-
-    public boolean checkDependenciesSatisfied(long v) {
-        return !activation.getInputLinks(false, false)
-                .anyMatch(l -> l.input.markedHasCandidate != v && !l.synapse.key.isRecurrent && l.input.upperBound > 0.0);
+        return conflicting;
     }
 
 
@@ -69,8 +66,8 @@ public class Candidate  implements Comparable<Candidate> {
 
     @Override
     public int compareTo(Candidate c) {
-        if(!isConflicting() && c.isConflicting()) return -1;
-        if(isConflicting() && !c.isConflicting()) return 1;
+        if(!conflicting && c.conflicting) return -1;
+        if(conflicting && !c.conflicting) return 1;
 
         int r = Integer.compare(activation.range.begin, c.activation.range.begin);
         if (r != 0) return r;
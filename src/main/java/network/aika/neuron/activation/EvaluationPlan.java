@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.neuron.activation;
+
+
+import network.aika.Document;
+import network.aika.PassiveInputFunction;
+import network.aika.neuron.INeuron;
+import network.aika.neuron.Synapse;
+import network.aika.neuron.activation.Activation.Link;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * The {@code EvaluationPlan} is a compiled form of the input links of an activation. The active input links are
+ * grouped by synapse and the synapse weights, limits and flags as well as the distance factors of the links are
+ * stored in flat arrays, so that the value and bound computations of the activation can be executed in a tight loop.
+ *
+ * <p>A plan is only valid as long as the input links of the activation and the weights of the neuron do not change.
+ * It is therefore discarded whenever a link is added or becomes passive and rebuilt if the
+ * {@code INeuron.weightsVersion} of the neuron has changed.
+ *
+ * <p>If {@code Document.INCREMENTAL_BOUNDS} is set or for disjunctive neurons with a large number of input links
+ * the plan is sparse. A sparse plan additionally keeps the last contribution of every link to the bounds of the
+ * activation together with the running sums of these contributions. Only the contributions of the changed input
+ * links need to be updated then. The changed links are marked by their index in the plan.
+ *
+ * @author Lukas Molzberger
+ */
+class EvaluationPlan {
+
+    final INeuron neuron;
+    final int weightsVersion;
+
+    final int numberOfGroups;
+    final int[] groupBegin;
+    final double[] weights;
+    final double[] limits;
+    final boolean[] negative;
+    final boolean[] recurrent;
+
+    final int numberOfLinks;
+    final Activation[] inputs;
+    final double[] distances;
+
+    final int numberOfPassiveInputs;
+    final Synapse[] passiveSynapses;
+    final double[] passiveWeights;
+    final boolean[] passiveNegative;
+    final PassiveInputFunction[] passiveFunctions;
+    final double[] passiveValues;
+
+    final boolean sparse;
+    int[] linkGroups;
+    double[] ubContributions;
+    double[] lbContributions;
+    int[] selfReferencingCandidates;
+    BitSet changedLinks;
+    double ubSum;
+    double lbSum;
+    boolean sumsInitialized;
+    int numberOfUpdates;
+
+
+    EvaluationPlan(Activation act, INeuron n, Collection<Link> links) {
+        neuron = n;
+        weightsVersion = n.weightsVersion;
+
+        ArrayList<Link> tmp = new ArrayList<>(links.size());
+        int groups = 0;
+        Synapse lastSynapse = null;
+        for(Link l: links) {
+            l.planIndex = -1;
+            if(l.synapse.inactive || l.passive) {
+                continue;
+            }
+            if(lastSynapse != l.synapse) {
+                groups++;
+            }
+            tmp.add(l);
+            lastSynapse = l.synapse;
+        }
+
+        numberOfGroups = groups;
+        groupBegin = new int[groups + 1];
+        weights = new double[groups];
+        limits = new double[groups];
+        negative = new boolean[groups];
+        recurrent = new boolean[groups];
+
+        numberOfLinks = tmp.size();
+        inputs = new Activation[numberOfLinks];
+        distances = new double[numberOfLinks];
+
+        int g = -1;
+        lastSynapse = null;
+        for(int i = 0; i < numberOfLinks; i++) {
+            Link l = tmp.get(i);
+            Synapse s = l.synapse;
+            if(lastSynapse != s) {
+                g++;
+                groupBegin[g] = i;
+                weights[g] = s.weight;
+                limits[g] = s.limit;
+                negative[g] = s.isNegative();
+                recurrent[g] = s.key.isRecurrent;
+            }
+
+            l.planIndex = i;
+            inputs[i] = l.input;
+            distances[i] = s.distanceFunction != null ? s.distanceFunction.f(l.input, act) : 1.0;
+            lastSynapse = s;
+        }
+        groupBegin[groups] = numberOfLinks;
+
+        sparse = Document.INCREMENTAL_BOUNDS || (n.logicType == INeuron.LogicType.DISJUNCTIVE && numberOfLinks >= INeuron.SPARSE_FAN_IN_THRESHOLD);
+        if(sparse) {
+            linkGroups = new int[numberOfLinks];
+            ubContributions = new double[numberOfLinks];
+            lbContributions = new double[numberOfLinks];
+            changedLinks = new BitSet(numberOfLinks);
+
+            int numberOfCandidates = 0;
+            for(g = 0; g < groups; g++) {
+                for(int i = groupBegin[g]; i < groupBegin[g + 1]; i++) {
+                    linkGroups[i] = g;
+                }
+                if(negative[g] && !recurrent[g]) {
+                    numberOfCandidates += groupBegin[g + 1] - groupBegin[g];
+                }
+            }
+
+            selfReferencingCandidates = new int[numberOfCandidates];
+            int j = 0;
+            for(g = 0; g < groups; g++) {
+                if(negative[g] && !recurrent[g]) {
+                    for(int i = groupBegin[g]; i < groupBegin[g + 1]; i++) {
+                        selfReferencingCandidates[j++] = i;
+                    }
+                }
+            }
+        }
+
+        numberOfPassiveInputs = n.passiveInputSynapses != null ? n.passiveInputSynapses.size() : 0;
+        passiveSynapses = new Synapse[numberOfPassiveInputs];
+        passiveWeights = new double[numberOfPassiveInputs];
+        passiveNegative = new boolean[numberOfPassiveInputs];
+        passiveFunctions = new PassiveInputFunction[numberOfPassiveInputs];
+        passiveValues = new double[numberOfPassiveInputs];
+
+        if(n.passiveInputSynapses != null) {
+            int i = 0;
+            for (Synapse s : n.passiveInputSynapses.values()) {
+                passiveSynapses[i] = s;
+                passiveWeights[i] = s.weight;
+                passiveNegative[i] = s.isNegative();
+                passiveFunctions[i] = s.input.get(act.doc).passiveInputFunction;
+                passiveValues[i] = Double.NaN;
+                i++;
+            }
+        }
+    }
+
+
+    boolean isValid() {
+        return weightsVersion == neuron.weightsVersion;
+    }
+
+
+    /**
+     * Recomputes the contribution of the given link to the running bound sums. The upper bound contribution of the
+     * non recurrent negative links depends on the predecessors of the activation and is therefore not part of the
+     * running sum.
+     *
+     * @param act
+     * @param i
+     */
+    void updateContribution(Activation act, int i) {
+        int g = linkGroups[i];
+        Activation iAct = inputs[i];
+
+        double ub = 0.0;
+        double lb = 0.0;
+        if(iAct != act) {
+            double x = weights[g] * distances[i];
+            if (negative[g]) {
+                lb = limits[g] * x;
+            } else {
+                ub = Math.min(limits[g], iAct.upperBound) * x;
+                lb = Math.min(limits[g], iAct.lowerBound) * x;
+            }
+        }
+
+        ubSum += ub - ubContributions[i];
+        lbSum += lb - lbContributions[i];
+        ubContributions[i] = ub;
+        lbContributions[i] = lb;
+        numberOfUpdates++;
+    }
+
+
+    /**
+     * The running sums accumulate rounding errors with every update. Therefore they are recomputed from the
+     * contributions of the links once the number of updates reaches the number of links, which keeps the amortized
+     * cost of an update constant.
+     */
+    void resyncSums() {
+        if(numberOfUpdates < numberOfLinks) return;
+
+        ubSum = 0.0;
+        lbSum = 0.0;
+        for(int i = 0; i < numberOfLinks; i++) {
+            ubSum += ubContributions[i];
+            lbSum += lbContributions[i];
+        }
+        numberOfUpdates = 0;
+    }
+
+
+    double getPassiveInputValue(int i, Activation act) {
+        PassiveInputFunction f = passiveFunctions[i];
+        if(!f.isDeterministic()) {
+            return passiveWeights[i] * f.getActivationValue(passiveSynapses[i], act);
+        }
+
+        double v = passiveValues[i];
+        if(Double.isNaN(v)) {
+            v = act.doc.getPassiveInputValue(passiveSynapses[i], act, f);
+            passiveValues[i] = v;
+        }
+        return passiveWeights[i] * v;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.neuron.activation;
+
+
+import network.aika.Document;
+import network.aika.neuron.activation.Activation.StateChange;
+import network.aika.neuron.activation.SearchNode.Decision;
+
+import java.util.*;
+
+/**
+ * An {@code Interpretation} is a compact representation of a leaf of the search tree. Only the weight of the leaf
+ * and the set of selected candidates are stored, the decisions of all the other activations are derived from them.
+ * The interpretations are collected during the search if {@code SearchNode.NUMBER_OF_INTERPRETATIONS} is larger
+ * than one.
+ *
+ * @author Lukas Molzberger
+ */
+public class Interpretation implements Comparable<Interpretation> {
+
+    private Document doc;
+    private double weight;
+    private BitSet selected;
+    private int id;
+
+
+    Interpretation(Document doc, SearchNode leaf) {
+        this.doc = doc;
+        this.weight = leaf.accumulatedWeight;
+        this.id = leaf.id;
+
+        selected = new BitSet(doc.candidates.size());
+        for(SearchNode sn = leaf; sn.getParent() != null; sn = sn.getParent()) {
+            if(sn.getDecision() == Decision.SELECTED) {
+                selected.set(sn.getParent().candidate.id);
+            }
+        }
+    }
+
+
+    public double getWeight() {
+        return weight;
+    }
+
+
+    /**
+     * Returns the decision for the given activation within this interpretation. Activations that were not part of
+     * the search keep their final decision.
+     *
+     * @param act
+     * @return
+     */
+    public Decision getDecision(Activation act) {
+        Candidate c = act.candidate;
+        if(c == null || c.id >= doc.candidates.size() || doc.candidates.get(c.id) != c) {
+            return act.finalDecision;
+        }
+        return selected.get(c.id) ? Decision.SELECTED : Decision.EXCLUDED;
+    }
+
+
+    /**
+     * Materializes this interpretation by replaying its decisions in the order of the candidates. The resulting
+     * activation values and bounds are stored as the final state of the candidate activations, the same way as the
+     * search stores the best interpretation. The working state of the activations is restored afterwards. This
+     * method may only be called after the document has been processed.
+     */
+    public void materialize() {
+        long v = doc.visitedCounter++;
+
+        List<Map<Activation, StateChange>> steps = new ArrayList<>(doc.candidates.size());
+        for(Candidate c: doc.candidates) {
+            Activation act = c.activation;
+            act.setDecision(selected.get(c.id) ? Decision.SELECTED : Decision.EXCLUDED, v);
+
+            Map<Activation, StateChange> changes = new TreeMap<>(Activation.ACTIVATION_ID_COMP);
+            doc.vQueue.process(act, changes);
+            steps.add(changes);
+        }
+
+        for(Candidate c: doc.candidates) {
+            Activation act = c.activation;
+            act.finalRounds = act.rounds.copy();
+            act.finalDecision = act.decision;
+        }
+
+        for(int i = steps.size() - 1; i >= 0; i--) {
+            steps.get(i).values().forEach(sc -> sc.restoreState(Activation.Mode.OLD));
+
+            Activation act = doc.candidates.get(i).activation;
+            act.setDecision(Decision.UNKNOWN, v);
+            act.rounds.reset();
+        }
+    }
+
+
+    public List<Activation> getSelectedActivations() {
+        List<Activation> results = new ArrayList<>();
+        for(Activation act: doc.activationsById.values()) {
+            if(getDecision(act) == Decision.SELECTED) {
+                results.add(act);
+            }
+        }
+        return results;
+    }
+
+
+    @Override
+    public int compareTo(Interpretation in) {
+        int r = Double.compare(weight, in.weight);
+        if(r != 0) return r;
+        return Integer.compare(in.id, id);
+    }
+
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("W:" + weight + " [");
+        boolean first = true;
+        for(Activation act: getSelectedActivations()) {
+            if(!first) sb.append(", ");
+            first = false;
+            sb.append(act.id + ":" + act.getLabel() + " " + act.range);
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
@@ -191,10 +191,10 @@ public class Linker {
                             nol.link();
 
                             if(!ol.synapse.isNegative() && checkLoop(nl.input, ol.output)) {
-                                ol.passive = true;
+                                ol.setPassive(true);
                             }
                             if(!ol.synapse.isNegative() && checkLoop(el.input, ol.output)) {
-                                nol.passive = true;
+                                nol.setPassive(true);
                             }
                         }
                 );
@@ -213,7 +213,7 @@ public class Linker {
                 .filter(l -> l.synapse.key.isRecurrent && !l.synapse.isNegative())
                 .forEach(l -> {
                     if(!l.passive && !checkLoop(l.input, l.output)) {
-                        l.passive = true;
+                        l.setPassive(true);
                     }
                 });
     }
@@ -221,10 +221,9 @@ public class Linker {
 
 
     protected boolean checkLoop(Activation iAct, Activation oAct) {
-        long v = doc.visitedCounter++;
-
-        oAct.markedPredecessor = v;
-        return iAct.checkSelfReferencing(false, 0, v);
+        BitSet predecessors = new BitSet();
+        predecessors.set(oAct.id);
+        return iAct.checkSelfReferencing(false, 0, predecessors);
     }
 
 
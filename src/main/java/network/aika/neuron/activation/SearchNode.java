@@ -53,6 +53,17 @@ public class SearchNode implements Comparable<SearchNode> {
     public static boolean OPTIMIZE_SEARCH = true;
     public static boolean COMPUTE_SOFT_MAX = false;
 
+    /**
+     * Records the search statistics of each document in a {@link SearchProfile}.
+     */
+    public static boolean ENABLE_PROFILING = false;
+
+    /**
+     * The number of best interpretations that are kept in {@code Document.interpretations}. If it is set to one,
+     * only the best interpretation is stored in the final state of the activations.
+     */
+    public static int NUMBER_OF_INTERPRETATIONS = 1;
+
     public int id;
 
     SearchNode excludedParent;
@@ -126,6 +137,9 @@ public class SearchNode implements Comparable<SearchNode> {
 
         Candidate c = getParent() != null ? getParent().candidate : null;
 
+        SearchProfile profile = doc.searchProfile;
+        long startTime = profile != null ? System.nanoTime() : 0;
+
         SearchNode csn = null;
         boolean modified = true;
         if (c != null) {
@@ -181,6 +195,10 @@ public class SearchNode implements Comparable<SearchNode> {
             c.debugComputed[modified ? 1 : 0]++;
         }
 
+        if (profile != null) {
+            profile.recordSearchNode(c, getDecision(), level, modified, System.nanoTime() - startTime);
+        }
+
         if (getParent() != null) {
             SearchNode pn = getParent();
 
@@ -285,6 +303,21 @@ public class SearchNode implements Comparable<SearchNode> {
      * @param root
      */
     public static void search(Document doc, SearchNode root, long v, Long timeoutInMilliSeconds) throws TimeoutException {
+        search(doc, root, v, timeoutInMilliSeconds, false);
+    }
+
+
+    /**
+     * Searches for the best interpretation for the given document.
+     *
+     * If {@code degradeOnTimeout} is set, exceeding the timeout does not abort the search. Instead each of the
+     * remaining search nodes only explores a single branch, chosen greedily, so that at least one complete
+     * interpretation is reached. In this case the flag {@code doc.approximate} is set.
+     *
+     * @param doc
+     * @param root
+     */
+    public static void search(Document doc, SearchNode root, long v, Long timeoutInMilliSeconds, boolean degradeOnTimeout) throws TimeoutException {
         SearchNode sn = root;
         double returnWeight = 0.0;
         long startTime = System.currentTimeMillis();
@@ -297,8 +330,13 @@ public class SearchNode implements Comparable<SearchNode> {
 
             switch(sn.step) {
                 case INIT:
+                    if(degradeOnTimeout && !doc.approximate && timeoutInMilliSeconds != null && System.currentTimeMillis() > startTime + timeoutInMilliSeconds) {
+                        log.warn("Interpretation search took too long: " + (System.currentTimeMillis() - startTime) + "ms. Completing the search greedily.");
+                        doc.approximate = true;
+                    }
+
                     if (sn.level >= doc.candidates.size()) {
-                        if(timeoutInMilliSeconds != null && System.currentTimeMillis() > startTime + timeoutInMilliSeconds) {
+                        if(!degradeOnTimeout && timeoutInMilliSeconds != null && System.currentTimeMillis() > startTime + timeoutInMilliSeconds) {
                             throw new TimeoutException("Interpretation search took too long: " + (System.currentTimeMillis() - startTime) + "ms");
                         }
 
@@ -334,10 +372,10 @@ public class SearchNode implements Comparable<SearchNode> {
                     sn.excludedWeight = returnWeight;
 
                     sn.postReturn(sn.excludedChild);
-                    sn.step = sn.candidate.repeat && OPTIMIZE_SEARCH ? Step.PREPARE_SELECT : Step.FINAL;
+                    sn.step = sn.candidate.repeat && OPTIMIZE_SEARCH && !doc.approximate ? Step.PREPARE_SELECT : Step.FINAL;
                     break;
                 case FINAL:
-                    returnWeight = sn.finalStep();
+                    returnWeight = sn.finalStep(doc);
                     SearchNode pn = sn.getParent();
                     if(pn != null) {
                         pn.skip = sn.getDecision();
@@ -379,6 +417,8 @@ public class SearchNode implements Comparable<SearchNode> {
 
         if(alreadyExcluded || skip == SELECTED || (OPTIMIZE_SEARCH && getCachedDecision() == Decision.EXCLUDED) || doc.model.getSkipSelectStep().evaluate(candidate.activation)) return false;
 
+        if(doc.approximate && (isExplored() || (getGreedyDecision() == EXCLUDED && !isExcludeBlocked()))) return false;
+
         candidate.activation.setDecision(SELECTED, visited);
 
         if (candidate.cachedDecision == UNKNOWN) {
@@ -394,7 +434,7 @@ public class SearchNode implements Comparable<SearchNode> {
 
 
     private boolean prepareExcludeStep(Document doc) {
-        if(alreadySelected || skip == EXCLUDED || (OPTIMIZE_SEARCH && getCachedDecision() == Decision.SELECTED) || (!alreadyExcluded && generatesUnsuppressedExcluded())) return false;
+        if(isExcludeBlocked() || (doc.approximate && isExplored())) return false;
 
         candidate.activation.setDecision(EXCLUDED, visited);
 
@@ -406,6 +446,34 @@ public class SearchNode implements Comparable<SearchNode> {
     }
 
 
+    private boolean isExcludeBlocked() {
+        return alreadySelected || skip == EXCLUDED || (OPTIMIZE_SEARCH && getCachedDecision() == Decision.SELECTED) || (!alreadyExcluded && generatesUnsuppressedExcluded());
+    }
+
+
+    private boolean isExplored() {
+        return selectedChild != null || excludedChild != null;
+    }
+
+
+    /**
+     * Chooses a branch without looking ahead. It is used once the search deadline has been exceeded.
+     */
+    private Decision getGreedyDecision() {
+        if(alreadySelected) return SELECTED;
+        if(alreadyExcluded) return EXCLUDED;
+
+        Decision cd = getCachedDecision();
+        if(cd != UNKNOWN) return cd;
+
+        Activation act = candidate.activation;
+        for (Activation cAct : act.getConflicts()) {
+            if (cAct.decision != EXCLUDED && cAct.upperBound > act.upperBound) return EXCLUDED;
+        }
+        return SELECTED;
+    }
+
+
     private boolean generatesUnsuppressedExcluded() {
         x: for (Activation cAct : candidate.activation.getConflicts()) {
             if(cAct.decision == EXCLUDED) {
@@ -434,10 +502,12 @@ public class SearchNode implements Comparable<SearchNode> {
     }
 
 
-    private double finalStep() {
+    private double finalStep(Document doc) {
         Decision d;
         Decision cd = getCachedDecision();
-        if(cd == UNKNOWN) {
+        if(doc.approximate && (selectedChild == null) != (excludedChild == null)) {
+            d = selectedChild != null ? SELECTED : EXCLUDED;
+        } else if(cd == UNKNOWN) {
             d = alreadySelected || (!alreadyExcluded && selectedWeight >= excludedWeight) ? SELECTED : EXCLUDED;
 
             if (!alreadyExcluded) {
@@ -504,33 +574,27 @@ public class SearchNode implements Comparable<SearchNode> {
             bestPath = false;
         }
 
-        if(COMPUTE_SOFT_MAX) {
-/*            dumpDebugState();
-            System.out.println(accumulatedWeight);
-            System.out.println(cacheFactor);
-            System.out.println();
-*/
-            storeSearchState(doc);
+        if(doc.softMax != null) {
+            doc.softMax.add(this);
+        }
+
+        if(doc.interpretations != null) {
+            storeInterpretation(doc);
         }
 
         return accumulatedWeight;
     }
 
 
-    private void storeSearchState(Document doc) {
-        doc.searchNodeWeights.put(id, accumulatedWeight);
-
-        SearchNode sn = this;
-        while(sn != null) {
-            if(sn.candidate != null) {
-                Activation act = sn.candidate.activation;
+    private void storeInterpretation(Document doc) {
+        PriorityQueue<Interpretation> q = doc.interpretations;
+        if(q.size() >= NUMBER_OF_INTERPRETATIONS && accumulatedWeight <= q.peek().getWeight()) {
+            return;
+        }
 
-                if(act.searchStates == null) {
-                    act.searchStates = new TreeMap<>();
-                }
-                act.searchStates.put(id, act.rounds.getLast());
-            }
-            sn = sn.getParent();
+        q.add(new Interpretation(doc, this));
+        if(q.size() > NUMBER_OF_INTERPRETATIONS) {
+            q.poll();
         }
     }
 
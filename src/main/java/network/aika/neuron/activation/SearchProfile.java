@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.neuron.activation;
+
+
+import network.aika.Document;
+import network.aika.neuron.activation.SearchNode.Decision;
+import network.aika.neuron.activation.SearchNode.DebugState;
+
+import java.util.*;
+
+/**
+ * The {@code SearchProfile} collects statistics about the interpretation search of a single document. It is only
+ * created if {@code SearchNode.ENABLE_PROFILING} is set. Besides the per candidate counters that are already
+ * maintained by the {@link Candidate}, it records the time spent in the value queue, the reuse of cached search nodes
+ * and the number of search nodes per level of the search tree.
+ *
+ * <p>The profile can be exported either as JSON or as collapsed stacks (one line per stack followed by the number
+ * of nanoseconds spent in it), which can be fed directly into flame graph tools.
+ *
+ * @author Lukas Molzberger
+ */
+public class SearchProfile {
+
+    private Document doc;
+
+    public int numberOfSearchNodes;
+    public int numberOfCachedSearchNodes;
+    public int numberOfComputedSearchNodes;
+    public long processTime;
+
+    private int[] searchNodesPerLevel = new int[16];
+    private int maxLevel = -1;
+
+
+    public SearchProfile(Document doc) {
+        this.doc = doc;
+    }
+
+
+    void recordSearchNode(Candidate c, Decision d, int level, boolean computed, long time) {
+        numberOfSearchNodes++;
+
+        if(c != null) {
+            if (computed) {
+                numberOfComputedSearchNodes++;
+            } else {
+                numberOfCachedSearchNodes++;
+            }
+            c.debugProcessTime[d.ordinal()] += time;
+        }
+        processTime += time;
+
+        if(level >= searchNodesPerLevel.length) {
+            searchNodesPerLevel = Arrays.copyOf(searchNodesPerLevel, Math.max(level + 1, 2 * searchNodesPerLevel.length));
+        }
+        searchNodesPerLevel[level]++;
+        maxLevel = Math.max(maxLevel, level);
+    }
+
+
+    /**
+     * The ratio of search nodes whose activation values could be taken from the cached search node of the candidate.
+     */
+    public double getCacheHitRatio() {
+        int n = numberOfCachedSearchNodes + numberOfComputedSearchNodes;
+        return n > 0 ? numberOfCachedSearchNodes / (double) n : 0.0;
+    }
+
+
+    public int[] getDepthDistribution() {
+        return Arrays.copyOf(searchNodesPerLevel, maxLevel + 1);
+    }
+
+
+    /**
+     * Aggregates the candidate statistics by neuron. The neurons are ordered by the time spent in the value queue,
+     * starting with the most expensive one.
+     */
+    public List<NeuronProfile> getNeuronProfiles() {
+        Map<String, NeuronProfile> results = new TreeMap<>();
+        for(Candidate c: doc.candidates) {
+            String label = getLabel(c);
+            NeuronProfile np = results.get(label);
+            if(np == null) {
+                np = new NeuronProfile(label);
+                results.put(label, np);
+            }
+            np.add(c);
+        }
+
+        ArrayList<NeuronProfile> tmp = new ArrayList<>(results.values());
+        tmp.sort((np1, np2) -> {
+            int r = Long.compare(np2.processTime, np1.processTime);
+            if(r != 0) return r;
+            return Integer.compare(np2.explored, np1.explored);
+        });
+        return tmp;
+    }
+
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        sb.append("\"documentId\":" + doc.id);
+        sb.append(",\"searchSteps\":" + doc.searchStepCounter);
+        sb.append(",\"searchNodes\":" + numberOfSearchNodes);
+        sb.append(",\"cachedSearchNodes\":" + numberOfCachedSearchNodes);
+        sb.append(",\"computedSearchNodes\":" + numberOfComputedSearchNodes);
+        sb.append(",\"cacheHitRatio\":" + getCacheHitRatio());
+        sb.append(",\"processTimeNanos\":" + processTime);
+
+        sb.append(",\"depthDistribution\":[");
+        for(int i = 0; i <= maxLevel; i++) {
+            if(i > 0) sb.append(",");
+            sb.append(searchNodesPerLevel[i]);
+        }
+        sb.append("]");
+
+        sb.append(",\"candidates\":[");
+        boolean first = true;
+        for(Candidate c: doc.candidates) {
+            if(!first) sb.append(",");
+            first = false;
+
+            sb.append("{");
+            sb.append("\"id\":" + c.id);
+            sb.append(",\"activationId\":" + c.activation.id);
+            sb.append(",\"neuron\":" + quote(getLabel(c)));
+            sb.append(",\"range\":" + quote(String.valueOf(c.activation.range)));
+            sb.append(",\"conflicting\":" + c.isConflicting());
+            sb.append(",\"explored\":" + c.debugCounts[DebugState.EXPLORE.ordinal()]);
+            sb.append(",\"cached\":" + c.debugCounts[DebugState.CACHED.ordinal()]);
+            sb.append(",\"limited\":" + c.debugCounts[DebugState.LIMITED.ordinal()]);
+            sb.append(",\"selected\":" + c.debugDecisionCounts[0]);
+            sb.append(",\"excluded\":" + c.debugDecisionCounts[1]);
+            sb.append(",\"simCached\":" + c.debugComputed[0]);
+            sb.append(",\"simComputed\":" + c.debugComputed[1]);
+            sb.append(",\"modified\":" + c.debugComputed[2]);
+            sb.append(",\"selectedTimeNanos\":" + c.debugProcessTime[Decision.SELECTED.ordinal()]);
+            sb.append(",\"excludedTimeNanos\":" + c.debugProcessTime[Decision.EXCLUDED.ordinal()]);
+            sb.append("}");
+        }
+        sb.append("]");
+
+        sb.append(",\"neurons\":[");
+        first = true;
+        for(NeuronProfile np: getNeuronProfiles()) {
+            if(!first) sb.append(",");
+            first = false;
+
+            sb.append("{");
+            sb.append("\"neuron\":" + quote(np.label));
+            sb.append(",\"candidates\":" + np.candidates);
+            sb.append(",\"explored\":" + np.explored);
+            sb.append(",\"cached\":" + np.cached);
+            sb.append(",\"limited\":" + np.limited);
+            sb.append(",\"processTimeNanos\":" + np.processTime);
+            sb.append("}");
+        }
+        sb.append("]");
+
+        sb.append("}");
+        return sb.toString();
+    }
+
+
+    /**
+     * Exports the time spent in the value queue in the collapsed stack format: search;neuron;activation;decision time
+     */
+    public String toCollapsedStacks() {
+        StringBuilder sb = new StringBuilder();
+        for(Candidate c: doc.candidates) {
+            for(Decision d: new Decision[] {Decision.SELECTED, Decision.EXCLUDED}) {
+                long t = c.debugProcessTime[d.ordinal()];
+                if(t == 0) continue;
+
+                sb.append("search;");
+                sb.append(escapeFrame(getLabel(c)));
+                sb.append(";");
+                sb.append(escapeFrame(c.activation.id + ":" + c.activation.range));
+                sb.append(";");
+                sb.append(d.s);
+                sb.append(" ");
+                sb.append(t);
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+
+    private static String getLabel(Candidate c) {
+        String label = c.activation.getLabel();
+        return label != null ? label : "N" + c.activation.getINeuron().provider.id;
+    }
+
+
+    private static String escapeFrame(String s) {
+        return s.replaceAll("[;\\s]", "_");
+    }
+
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for(char c: s.toCharArray()) {
+            switch(c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append("\"");
+        return sb.toString();
+    }
+
+
+    public static class NeuronProfile {
+        public String label;
+        public int candidates;
+        public int explored;
+        public int cached;
+        public int limited;
+        public long processTime;
+
+
+        public NeuronProfile(String label) {
+            this.label = label;
+        }
+
+
+        private void add(Candidate c) {
+            candidates++;
+            explored += c.debugCounts[DebugState.EXPLORE.ordinal()];
+            cached += c.debugCounts[DebugState.CACHED.ordinal()];
+            limited += c.debugCounts[DebugState.LIMITED.ordinal()];
+            processTime += c.debugProcessTime[0] + c.debugProcessTime[1];
+        }
+    }
+}
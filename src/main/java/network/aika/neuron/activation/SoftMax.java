@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.neuron.activation;
+
+
+import network.aika.neuron.activation.Activation.State;
+
+import java.util.List;
+
+/**
+ * The {@code SoftMax} class computes the soft-max weighted average state of each candidate activation over all
+ * the leaves of the search tree. Instead of storing the state of every activation for every leaf, the weighted sums
+ * are accumulated as soon as a leaf is reached. To avoid overflows, the sums are kept relative to the largest leaf
+ * weight seen so far (log-sum-exp) and rescaled whenever a larger weight occurs.
+ *
+ * @author Lukas Molzberger
+ */
+public class SoftMax {
+
+    private double maxWeight = Double.NEGATIVE_INFINITY;
+    private double norm = 0.0;
+
+    private double[] value;
+    private double[] posValue;
+    private double[] p;
+    private double[] net;
+    private double[] posNet;
+    private boolean[] reached;
+
+
+    public SoftMax(int numberOfCandidates) {
+        value = new double[numberOfCandidates];
+        posValue = new double[numberOfCandidates];
+        p = new double[numberOfCandidates];
+        net = new double[numberOfCandidates];
+        posNet = new double[numberOfCandidates];
+        reached = new boolean[numberOfCandidates];
+    }
+
+
+    /**
+     * Adds the current states of the candidate activations along the path of the given leaf.
+     *
+     * @param leaf
+     */
+    public void add(SearchNode leaf) {
+        double w = leaf.accumulatedWeight;
+        double x;
+        if(w > maxWeight) {
+            rescale(Math.exp(maxWeight - w));
+            maxWeight = w;
+            x = 1.0;
+        } else {
+            x = Math.exp(w - maxWeight);
+        }
+        norm += x;
+
+        for(SearchNode sn = leaf; sn != null; sn = sn.getParent()) {
+            Candidate c = sn.candidate;
+            if(c == null) continue;
+
+            int i = c.id;
+            State s = c.activation.rounds.getLast();
+
+            value[i] += x * s.value;
+            posValue[i] += x * s.posValue;
+            p[i] += x * s.p;
+            net[i] += x * s.net;
+            posNet[i] += x * s.posNet;
+            reached[i] = true;
+        }
+    }
+
+
+    private void rescale(double f) {
+        norm *= f;
+        for(int i = 0; i < value.length; i++) {
+            value[i] *= f;
+            posValue[i] *= f;
+            p[i] *= f;
+            net[i] *= f;
+            posNet[i] *= f;
+        }
+    }
+
+
+    /**
+     * Stores the averaged states in the {@code avgState} field of the candidate activations.
+     *
+     * @param candidates
+     */
+    public void computeAverages(List<Candidate> candidates) {
+        for(Candidate c: candidates) {
+            int i = c.id;
+            if(!reached[i]) continue;
+
+            c.activation.avgState = new State(value[i] / norm, posValue[i] / norm, p[i] / norm, net[i] / norm, posNet[i] / norm, 0, 0.0);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.training;
+
+
+import network.aika.Model;
+import network.aika.Writable;
+import network.aika.lattice.AndNode;
+import network.aika.lattice.NodeActivation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The {@code FrequencyCounter} approximates the number of activations of each logic node using a count-min sketch,
+ * which is keyed by the node id. Its memory consumption is independent of the number of nodes and documents, and
+ * the counted nodes are neither modified nor required to stay in memory. The estimated counts never fall below
+ * the true counts.
+ *
+ * <p>The counter may be used as counter, candidate check and pattern check of the pattern discovery. A new and-node
+ * is only created if all its parents have occurred at least {@code minFrequency} times. Additionally, the
+ * {@code numberOfHeavyHitters} most frequent nodes are tracked.
+ *
+ * <p>Since the counts are keyed by the node ids, the counter needs to be reset after the ids have been changed, e.g.
+ * by the {@code LatticeCompactor}.
+ *
+ * @author Lukas Molzberger
+ */
+public class FrequencyCounter implements PatternDiscovery.Counter, PatternDiscovery.CandidateCheck, PatternDiscovery.PatternCheck, Writable {
+
+    private static final long PRIME = 2147483647L;
+
+    private int width;
+    private long[][] counts;
+    private long[] hashA;
+    private long[] hashB;
+
+    private long minFrequency;
+    private int numberOfHeavyHitters;
+
+    private TreeMap<Integer, HeavyHitter> heavyHittersById = new TreeMap<>();
+    private TreeSet<HeavyHitter> heavyHitters = new TreeSet<>(
+            Comparator.<HeavyHitter>comparingLong(hh -> hh.count).thenComparingInt(hh -> hh.id)
+    );
+
+    public long numberOfCountedActivations;
+
+
+    public FrequencyCounter() {
+    }
+
+
+    /**
+     * @param depth The number of hash functions. The probability that an estimate exceeds the error bound is
+     *              {@code e^-depth}.
+     * @param width The number of counters per hash function. The error bound of an estimate is
+     *              {@code e / width * numberOfCountedActivations}.
+     * @param minFrequency
+     * @param numberOfHeavyHitters
+     * @param seed
+     */
+    public FrequencyCounter(int depth, int width, long minFrequency, int numberOfHeavyHitters, long seed) {
+        this.width = width;
+        this.minFrequency = minFrequency;
+        this.numberOfHeavyHitters = numberOfHeavyHitters;
+
+        counts = new long[depth][width];
+        hashA = new long[depth];
+        hashB = new long[depth];
+
+        Random r = new Random(seed);
+        for(int i = 0; i < depth; i++) {
+            hashA[i] = 1 + r.nextInt(Integer.MAX_VALUE - 1);
+            hashB[i] = r.nextInt(Integer.MAX_VALUE);
+        }
+    }
+
+
+    private int hash(int i, int id) {
+        return (int) (((hashA[i] * (id & 0xFFFFFFFFL) + hashB[i]) % PRIME) % width);
+    }
+
+
+    /**
+     * Increments the count of the node of this activation. The counters are updated conservatively, that is, only
+     * the counters that are equal to the current estimate are incremented.
+     */
+    @Override
+    public synchronized void count(NodeActivation act) {
+        add(act.node.provider.id, 1);
+    }
+
+
+    public synchronized void add(int id, long n) {
+        long estimate = getEstimate(id) + n;
+        for(int i = 0; i < counts.length; i++) {
+            int j = hash(i, id);
+            counts[i][j] = Math.max(counts[i][j], estimate);
+        }
+        numberOfCountedActivations += n;
+
+        updateHeavyHitters(id, estimate);
+    }
+
+
+    public synchronized long getEstimate(int id) {
+        long result = Long.MAX_VALUE;
+        for(int i = 0; i < counts.length; i++) {
+            result = Math.min(result, counts[i][hash(i, id)]);
+        }
+        return result;
+    }
+
+
+    private void updateHeavyHitters(int id, long estimate) {
+        if(numberOfHeavyHitters <= 0) return;
+
+        HeavyHitter hh = heavyHittersById.get(id);
+        if(hh != null) {
+            heavyHitters.remove(hh);
+        } else if(heavyHittersById.size() >= numberOfHeavyHitters) {
+            HeavyHitter min = heavyHitters.first();
+            if(min.count >= estimate) return;
+
+            heavyHitters.pollFirst();
+            heavyHittersById.remove(min.id);
+        }
+
+        hh = new HeavyHitter(id, estimate);
+        heavyHitters.add(hh);
+        heavyHittersById.put(id, hh);
+    }
+
+
+    /**
+     * Returns the node ids of the most frequent nodes and their estimated counts, sorted by descending count.
+     */
+    public synchronized LinkedHashMap<Integer, Long> getHeavyHitters() {
+        LinkedHashMap<Integer, Long> results = new LinkedHashMap<>();
+        for(HeavyHitter hh: heavyHitters.descendingSet()) {
+            results.put(hh.id, hh.count);
+        }
+        return results;
+    }
+
+
+    public boolean isFrequent(int id) {
+        return getEstimate(id) >= minFrequency;
+    }
+
+
+    public synchronized void reset() {
+        for(int i = 0; i < counts.length; i++) {
+            Arrays.fill(counts[i], 0);
+        }
+        numberOfCountedActivations = 0;
+
+        heavyHitters.clear();
+        heavyHittersById.clear();
+    }
+
+
+    @Override
+    public boolean check(NodeActivation act, NodeActivation secondAct) {
+        return isFrequent(act.node.provider.id) && isFrequent(secondAct.node.provider.id);
+    }
+
+
+    /**
+     * Only the provider ids of the parents are used, hence suspended parents are not loaded.
+     */
+    @Override
+    public boolean check(AndNode andNode) {
+        for(AndNode.RefValue rv: andNode.parents.values()) {
+            if(!isFrequent(rv.parent.id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeInt(counts.length);
+        out.writeInt(width);
+        out.writeLong(minFrequency);
+        out.writeInt(numberOfHeavyHitters);
+        out.writeLong(numberOfCountedActivations);
+
+        for(int i = 0; i < counts.length; i++) {
+            out.writeLong(hashA[i]);
+            out.writeLong(hashB[i]);
+            for(int j = 0; j < width; j++) {
+                out.writeLong(counts[i][j]);
+            }
+        }
+
+        out.writeInt(heavyHitters.size());
+        for(HeavyHitter hh: heavyHitters) {
+            out.writeInt(hh.id);
+            out.writeLong(hh.count);
+        }
+    }
+
+
+    @Override
+    public synchronized void readFields(DataInput in, Model m) throws IOException {
+        int depth = in.readInt();
+        width = in.readInt();
+        minFrequency = in.readLong();
+        numberOfHeavyHitters = in.readInt();
+        numberOfCountedActivations = in.readLong();
+
+        counts = new long[depth][width];
+        hashA = new long[depth];
+        hashB = new long[depth];
+        for(int i = 0; i < depth; i++) {
+            hashA[i] = in.readLong();
+            hashB[i] = in.readLong();
+            for(int j = 0; j < width; j++) {
+                counts[i][j] = in.readLong();
+            }
+        }
+
+        heavyHitters.clear();
+        heavyHittersById.clear();
+        int l = in.readInt();
+        for(int i = 0; i < l; i++) {
+            HeavyHitter hh = new HeavyHitter(in.readInt(), in.readLong());
+            heavyHitters.add(hh);
+            heavyHittersById.put(hh.id, hh);
+        }
+    }
+
+
+    private static class HeavyHitter {
+        final int id;
+        final long count;
+
+        HeavyHitter(int id, long count) {
+            this.id = id;
+            this.count = count;
+        }
+    }
+}
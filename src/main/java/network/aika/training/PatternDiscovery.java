@@ -19,9 +19,22 @@ package network.aika.training;
 
 import network.aika.Document;
 import network.aika.lattice.AndNode;
+import network.aika.lattice.AndNode.Refinement;
+import network.aika.lattice.InputNode;
+import network.aika.lattice.Node;
 import network.aika.lattice.NodeActivation;
+import network.aika.neuron.activation.Activation;
+import network.aika.neuron.relation.Relation;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 
 /**
@@ -68,6 +81,10 @@ public class PatternDiscovery {
         public CandidateCheck candidateCheck;
         public PatternCheck patternCheck;
         public Counter counter;
+        public int numberOfThreads = 1;
+        public Integer window;
+
+        private ThreadPoolExecutor executor;
 
 
         public Config setCandidateCheck(CandidateCheck candidateCheck) {
@@ -93,6 +110,129 @@ public class PatternDiscovery {
             this.counter = counter;
             return this;
         }
+
+
+        /**
+         * Uses the approximate counts of the frequency counter to count the activations and to decide which
+         * candidates and patterns are considered.
+         *
+         * @param frequencyCounter
+         * @return
+         */
+        public Config setFrequencyCounter(FrequencyCounter frequencyCounter) {
+            this.counter = frequencyCounter;
+            this.candidateCheck = frequencyCounter;
+            this.patternCheck = frequencyCounter;
+            return this;
+        }
+
+
+        /**
+         * The candidate pairs of activations are evaluated by the given number of threads. In this case the
+         * candidate check needs to be thread safe. The lattice itself is only extended by the calling thread. The
+         * thread pool is created by the first discovery and reused by the following ones. Its threads are daemon
+         * threads, which may be released earlier by calling {@code shutdown}. Changing the number of threads resizes
+         * the existing pool, so that a discovery that is running concurrently can still submit its candidates.
+         *
+         * @param numberOfThreads
+         * @return
+         */
+        public synchronized Config setNumberOfThreads(int numberOfThreads) {
+            if(executor != null) {
+                if(numberOfThreads > executor.getMaximumPoolSize()) {
+                    executor.setMaximumPoolSize(numberOfThreads);
+                    executor.setCorePoolSize(numberOfThreads);
+                } else {
+                    executor.setCorePoolSize(numberOfThreads);
+                    executor.setMaximumPoolSize(numberOfThreads);
+                }
+            }
+            this.numberOfThreads = numberOfThreads;
+            return this;
+        }
+
+
+        /**
+         * Restricts the candidate pairs of an input activation to the activations beginning at most
+         * {@code window} characters before the begin or after the end of this activation. The window only applies
+         * to the partners of the input node activations, the candidates of the and-node activations are not pruned.
+         *
+         * @param window
+         * @return
+         */
+        public Config setWindow(Integer window) {
+            this.window = window;
+            return this;
+        }
+
+
+        synchronized ExecutorService getExecutor() {
+            if(executor == null) {
+                executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "pattern-discovery");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            return executor;
+        }
+
+
+        /**
+         * Releases the threads of the pattern discovery. A later discovery creates a new thread pool. It must not be
+         * called while a discovery with this configuration is running.
+         */
+        public synchronized void shutdown() {
+            if(executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+
+    /**
+     * A pair of activations that might be combined into a new pattern. The range relation between the two
+     * activations is determined while collecting the candidates. The instance relations modify the visited markers
+     * of the document and are therefore only tested by the thread that extends the lattice.
+     */
+    public static class Candidate {
+        public final Node node;
+        public final Activation act;
+        public final Activation secondAct;
+        public final Relation rangeRelation;
+        public final boolean withoutRelation;
+        public final Function<Relation, Refinement> refinement;
+
+
+        public Candidate(Node node, Activation act, Activation secondAct, boolean withoutRelation, Function<Relation, Refinement> refinement) {
+            this.node = node;
+            this.act = act;
+            this.secondAct = secondAct;
+            this.rangeRelation = InputNode.getRangeRelation(act, secondAct);
+            this.withoutRelation = withoutRelation;
+            this.refinement = refinement;
+        }
+
+
+        public void extend(Document doc, Config config) {
+            List<Relation> rels = new ArrayList<>();
+            Relation rel = rangeRelation != null ? rangeRelation : InputNode.getInstanceRelation(act, secondAct);
+            if(rel != null) {
+                rels.add(rel);
+            }
+            if(withoutRelation) {
+                rels.add(null);
+            }
+
+            for(Relation r: rels) {
+                AndNode.RefValue rv = node.extend(doc.threadId, doc, refinement.apply(r), config);
+                if (rv != null) {
+                    AndNode nln = rv.child.get();
+                    nln.isDiscovered = true;
+                }
+            }
+        }
     }
 
 
@@ -104,11 +244,39 @@ public class PatternDiscovery {
         ArrayList<NodeActivation> activations = new ArrayList<>(doc.addedNodeActivations);
         doc.addedNodeActivations.clear();
 
-        activations.forEach(act -> act.node.discover(act, config));
+        for(List<Candidate> candidates: collectCandidates(activations, config)) {
+            candidates.forEach(c -> c.extend(doc, config));
+        }
 
 //        doc.propagate();
 
         doc.addedNodeActivations.forEach(act -> config.counter.count(act));
     }
 
+
+    private static List<List<Candidate>> collectCandidates(List<NodeActivation> activations, Config config) {
+        List<List<Candidate>> results = new ArrayList<>();
+        if(config.numberOfThreads <= 1) {
+            for(NodeActivation act: activations) {
+                results.add(act.node.collectDiscoveryCandidates(act, config));
+            }
+            return results;
+        }
+
+        ExecutorService executor = config.getExecutor();
+        try {
+            List<Future<List<Candidate>>> futures = new ArrayList<>();
+            for(NodeActivation act: activations) {
+                futures.add(executor.submit(() -> act.node.collectDiscoveryCandidates(act, config)));
+            }
+
+            for(Future<List<Candidate>> f: futures) {
+                results.add(f.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        return results;
+    }
+
 }
@@ -52,6 +52,7 @@ public interface SynapseEvaluation {
                 s.toBeDeleted = true;
             } else {
                 s.inactive = true;
+                s.output.get().weightsVersion++;
             }
         }
     }
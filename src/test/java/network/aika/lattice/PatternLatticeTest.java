@@ -23,10 +23,16 @@ import network.aika.neuron.Neuron;
 import network.aika.neuron.Synapse;
 import network.aika.neuron.activation.Range.Relation;
 import network.aika.lattice.AndNode.Refinement;
+import network.aika.lattice.AndNode.RelationsMap;
+import network.aika.neuron.relation.RangeRelation;
+import network.aika.training.PatternDiscovery;
 import network.aika.neuron.INeuron;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  *
  * @author Lukas Molzberger
@@ -136,4 +142,345 @@ public class PatternLatticeTest {
 
         Assert.assertFalse(nABC.getActivations(doc, false).isEmpty());
     }
+
+
+    @Test
+    public void testRefinementIndex() {
+        Model m = new Model();
+
+        Neuron inA = m.createNeuron("A");
+        Neuron inC = m.createNeuron("C");
+
+        Neuron[] inB = new Neuron[12];
+        Neuron[] nAB = new Neuron[12];
+        for(int i = 0; i < nAB.length; i++) {
+            inB[i] = m.createNeuron("B-" + i);
+            nAB[i] = Neuron.init(m.createNeuron("AB-" + i),
+                    5.0,
+                    INeuron.Type.EXCITATORY,
+                    INeuron.LogicType.CONJUNCTIVE,
+                    new Synapse.Builder()
+                            .setSynapseId(0)
+                            .setNeuron(inA)
+                            .setWeight(10.0)
+                            .setBias(-10.0)
+                            .addRangeRelation(Relation.END_TO_BEGIN_EQUALS, 1)
+                            .setRangeOutput(true, false),
+                    new Synapse.Builder()
+                            .setSynapseId(1)
+                            .setNeuron(inB[i])
+                            .setWeight(10.0)
+                            .setBias(-10.0)
+                            .setRangeOutput(false, true)
+            );
+        }
+
+        Neuron nAC = Neuron.init(m.createNeuron("AC"),
+                5.0,
+                INeuron.Type.EXCITATORY,
+                INeuron.LogicType.CONJUNCTIVE,
+                new Synapse.Builder()
+                        .setSynapseId(0)
+                        .setNeuron(inA)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .addRangeRelation(Relation.CONTAINED_IN, 1),
+                new Synapse.Builder()
+                        .setSynapseId(1)
+                        .setNeuron(inC)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .setRangeOutput(true)
+        );
+
+        Assert.assertTrue(inA.get().outputNode.get().andChildren.size() > 10);
+
+        Document doc = m.createDocument("abcd", 0);
+
+        inA.addInput(doc, 0, 1);
+        inC.addInput(doc, 0, 3);
+        for(int i = 0; i < inB.length; i++) {
+            if(i % 2 == 0) {
+                inB[i].addInput(doc, 1, 2);
+            } else {
+                inB[i].addInput(doc, 2, 3);
+            }
+        }
+
+        doc.process();
+
+        for(int i = 0; i < nAB.length; i++) {
+            Assert.assertEquals(i % 2 == 0 ? 1 : 0, nAB[i].getActivations(doc, true).size());
+        }
+        Assert.assertEquals(1, nAC.getActivations(doc, true).size());
+
+        doc.clearActivations();
+    }
+
+
+    @Test
+    public void testJoinWithoutDuplicates() {
+        for(boolean batch: new boolean[] {false, true}) {
+            Model m = new Model();
+
+            int k = 4;
+            Neuron[] in = new Neuron[k];
+            Synapse.Builder[] inputs = new Synapse.Builder[k];
+            for(int i = 0; i < k; i++) {
+                in[i] = m.createNeuron("I" + i);
+                inputs[i] = new Synapse.Builder()
+                        .setSynapseId(i)
+                        .setNeuron(in[i])
+                        .setWeight(1.0)
+                        .setBias(-1.0)
+                        .setRangeOutput(true);
+                if(i < k - 1) {
+                    inputs[i].addRangeRelation(Relation.EQUALS, i + 1);
+                }
+            }
+            Neuron.init(m.createNeuron("OUT"), 0.001, INeuron.Type.EXCITATORY, INeuron.LogicType.CONJUNCTIVE, inputs);
+
+            Document doc = m.createDocument("aaaa", 0);
+            if(batch) {
+                Document.InputBatch b = new Document.InputBatch();
+                for(int i = 0; i < k; i++) {
+                    b.add(in[i], 0, 1);
+                }
+                doc.addInputs(b);
+            } else {
+                for(int i = 0; i < k; i++) {
+                    in[i].addInput(doc, 0, 1);
+                }
+            }
+
+            int numberOfAndNodes = 0;
+            for(Node n: doc.activatedNodes) {
+                if(n instanceof AndNode) {
+                    Assert.assertEquals(1, n.getActivations(doc).size());
+                    numberOfAndNodes++;
+                }
+            }
+            Assert.assertEquals(6, numberOfAndNodes);
+
+            doc.clearActivations();
+        }
+    }
+
+
+    @Test
+    public void testJoinSkipsSiblingsWithoutChildRefinement() {
+        Model m = new Model();
+
+        Neuron[] in = new Neuron[3];
+        Synapse.Builder[] inputs = new Synapse.Builder[in.length];
+        for(int i = 0; i < in.length; i++) {
+            in[i] = m.createNeuron("I" + i);
+            inputs[i] = new Synapse.Builder()
+                    .setSynapseId(i)
+                    .setNeuron(in[i])
+                    .setWeight(1.0)
+                    .setBias(-1.0)
+                    .setRangeOutput(true);
+            if(i < in.length - 1) {
+                inputs[i].addRangeRelation(Relation.EQUALS, i + 1);
+            }
+        }
+        Neuron out = Neuron.init(m.createNeuron("OUT"), 0.001, INeuron.Type.EXCITATORY, INeuron.LogicType.CONJUNCTIVE, inputs);
+
+        // Siblings of the pattern I0 I1 without a refinement in any child node.
+        InputNode n0 = in[0].get().outputNode.get();
+        RangeRelation[] eq = new RangeRelation[] {new RangeRelation(Relation.EQUALS)};
+        Neuron[] unrelated = new Neuron[10];
+        for(int i = 0; i < unrelated.length; i++) {
+            unrelated[i] = m.createNeuron("X" + i);
+            n0.extend(0, null, new Refinement(new RelationsMap(eq), InputNode.add(m, unrelated[i].get()).provider), null);
+        }
+
+        Document doc = m.createDocument("aaaa", 0);
+        for(Neuron n: unrelated) {
+            n.addInput(doc, 0, 1);
+        }
+        for(Neuron n: in) {
+            n.addInput(doc, 0, 1);
+        }
+        doc.process();
+
+        Assert.assertEquals(1, out.getActivations(doc, true).size());
+
+        long numberOfJoinCandidates = 0;
+        for(Neuron n: in) {
+            for(AndNode.RefValue rv: n.get().outputNode.get().andChildren.values()) {
+                numberOfJoinCandidates += rv.joinCandidates;
+            }
+        }
+        Assert.assertTrue(numberOfJoinCandidates < unrelated.length);
+
+        doc.clearActivations();
+    }
+
+
+    @Test
+    public void testPatternInterning() {
+        Model m = new Model();
+
+        InputNode nA = InputNode.add(m, m.createNeuron("A").get());
+        InputNode nB = InputNode.add(m, m.createNeuron("B").get());
+        InputNode nC = InputNode.add(m, m.createNeuron("C").get());
+
+        RangeRelation eq = new RangeRelation(Relation.EQUALS);
+
+        AndNode nAB = nA.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq}), nB.provider), null).child.get();
+        nA.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq}), nC.provider), null);
+
+        // The pattern discovery does not create the missing parent BC.
+        PatternDiscovery.Config config = new PatternDiscovery.Config().setPatternCheck(n -> true);
+        AndNode nABC = nAB.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq, eq}), nC.provider), config).child.get();
+        Assert.assertEquals(2, nABC.parents.size());
+
+        AndNode nBC = nB.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq}), nC.provider), null).child.get();
+        AndNode.RefValue rv = nBC.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq, eq}), nA.provider), null);
+
+        Assert.assertEquals(nABC, rv.child.get());
+        Assert.assertEquals(3, nABC.parents.size());
+        Assert.assertEquals(1, nABC.numberOfAliases);
+
+        LatticeStatistics ls = LatticeStatistics.create(m);
+        Assert.assertEquals(3, (int) ls.nodesPerLevel.get(1));
+        Assert.assertEquals(3, (int) ls.nodesPerLevel.get(2));
+        Assert.assertEquals(1, (int) ls.nodesPerLevel.get(3));
+        Assert.assertEquals(1, ls.numberOfAliases);
+        Assert.assertEquals(7, ls.numberOfOrphanedNodes);
+    }
+
+
+    @Test
+    public void testMappedPatternKey() {
+        Model m = new Model();
+
+        InputNode nA = InputNode.add(m, m.createNeuron("A").get());
+        InputNode nB = InputNode.add(m, m.createNeuron("B").get());
+
+        RangeRelation etb = new RangeRelation(Relation.END_TO_BEGIN_EQUALS);
+
+        AndNode nAB = nA.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {etb}), nB.provider), null).child.get();
+        AndNode nBA = nB.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {etb}), nA.provider), null).child.get();
+        Assert.assertNotEquals(0, nAB.getPatternKey().compareTo(nBA.getPatternKey()));
+
+        // Swapping the ids of the input nodes turns the pattern AB into the pattern BA.
+        int a = nA.provider.id;
+        int b = nB.provider.id;
+        PatternKey mapped = nAB.getPatternKey().map(id -> id == a ? b : (id == b ? a : id));
+
+        Assert.assertEquals(0, mapped.compareTo(nBA.getPatternKey()));
+        Assert.assertArrayEquals(nBA.getPatternKey().positions, mapped.positions);
+    }
+
+
+    @Test
+    public void testAliasNeuronRefs() {
+        Model m = new Model();
+
+        InputNode nA = InputNode.add(m, m.createNeuron("A").get());
+        InputNode nB = InputNode.add(m, m.createNeuron("B").get());
+        InputNode nC = InputNode.add(m, m.createNeuron("C").get());
+
+        RangeRelation eq = new RangeRelation(Relation.EQUALS);
+
+        AndNode nAB = nA.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq}), nB.provider), null).child.get();
+        nA.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq}), nC.provider), null);
+
+        PatternDiscovery.Config config = new PatternDiscovery.Config().setPatternCheck(n -> true);
+        AndNode nABC = nAB.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq, eq}), nC.provider), config).child.get();
+
+        // A neuron referencing the pattern ABC.
+        nABC.changeNumberOfNeuronRefs(0, m.visitedCounter.addAndGet(1), 1);
+
+        AndNode nBC = nB.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq}), nC.provider), null).child.get();
+        nBC.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq, eq}), nA.provider), null);
+        Assert.assertEquals(1, nABC.numberOfAliases);
+        Assert.assertEquals(1, nBC.numberOfNeuronRefs.get());
+        Assert.assertEquals(1, nB.numberOfNeuronRefs.get());
+
+        nABC.changeNumberOfNeuronRefs(0, m.visitedCounter.addAndGet(1), -1);
+        for(Node n: new Node[] {nA, nB, nC, nAB, nBC, nABC}) {
+            Assert.assertEquals(0, n.numberOfNeuronRefs.get());
+        }
+    }
+
+
+    @Test
+    public void testParallelDiscovery() {
+        AtomicInteger numberOfPairs = new AtomicInteger();
+        String expected = discover(1, null, numberOfPairs);
+        int allPairs = numberOfPairs.getAndSet(0);
+        Assert.assertTrue(expected.contains("2="));
+
+        Assert.assertEquals(expected, discover(4, null, numberOfPairs));
+        Assert.assertEquals(allPairs, numberOfPairs.getAndSet(0));
+
+        // The inputs are at most three characters long, hence no related pair lies outside of this window.
+        Assert.assertEquals(expected, discover(4, 3, numberOfPairs));
+        Assert.assertTrue(numberOfPairs.get() < allPairs);
+    }
+
+
+    @Test
+    public void testDiscoveryWindowBoundary() {
+        Model m = new Model();
+        Neuron inA = m.createNeuron("A");
+        Neuron inB = m.createNeuron("B");
+
+        Document doc = m.createDocument("", 0);
+        inA.addInput(doc, 0, 1);
+        // Begins exactly at the end of the window, but ends behind it.
+        inB.addInput(doc, 3, 5);
+        doc.process();
+
+        AtomicInteger numberOfPairs = new AtomicInteger();
+        PatternDiscovery.Config config = new PatternDiscovery.Config()
+                .setCandidateCheck((act, secondAct) -> numberOfPairs.incrementAndGet() > 0)
+                .setPatternCheck(n -> true)
+                .setCounter(act -> {})
+                .setWindow(2);
+
+        PatternDiscovery.discover(doc, config);
+        Assert.assertEquals(1, numberOfPairs.get());
+
+        config.setNumberOfThreads(4);
+        PatternDiscovery.discover(doc, config);
+        config.shutdown();
+
+        doc.clearActivations();
+    }
+
+
+    private String discover(int numberOfThreads, Integer window, AtomicInteger numberOfPairs) {
+        Model m = new Model();
+        Neuron[] in = new Neuron[3];
+        for(int i = 0; i < in.length; i++) {
+            in[i] = m.createNeuron("" + (char) ('A' + i));
+        }
+
+        Random r = new Random(3);
+        Document doc = m.createDocument("", 0);
+        for(int i = 0; i < 30; i++) {
+            int b = r.nextInt(100);
+            in[r.nextInt(in.length)].addInput(doc, b, b + 1 + r.nextInt(3));
+        }
+        doc.process();
+
+        PatternDiscovery.Config config = new PatternDiscovery.Config()
+                .setCandidateCheck((act, secondAct) -> numberOfPairs.incrementAndGet() > 0)
+                .setPatternCheck(n -> true)
+                .setCounter(act -> {})
+                .setNumberOfThreads(numberOfThreads)
+                .setWindow(window);
+
+        PatternDiscovery.discover(doc, config);
+        PatternDiscovery.discover(doc, config);
+
+        String result = LatticeStatistics.create(m).nodesPerLevel.toString();
+        doc.clearActivations();
+        return result;
+    }
 }
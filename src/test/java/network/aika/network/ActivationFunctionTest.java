@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.network;
+
+
+import network.aika.ActivationFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ *
+ * @author Lukas Molzberger
+ */
+public class ActivationFunctionTest {
+
+
+    @Test
+    public void testBatchEvaluation() {
+        double[] in = createInputs(1000, new Random(42));
+        double[] out = new double[in.length];
+
+        ActivationFunction softPlus = new ActivationFunction(100, "SOFT_PLUS", x -> Math.log(1.0 + Math.exp(x)), true);
+
+        List<ActivationFunction> afs = new ArrayList<>(Arrays.asList(ActivationFunction.PREDEFINED));
+        afs.add(softPlus);
+        for(ActivationFunction af: afs) {
+            af.f(in, out, in.length);
+
+            for(int i = 0; i < in.length; i++) {
+                Assert.assertEquals(af.f(in[i]), out[i], 0.0);
+            }
+        }
+    }
+
+
+    @Test
+    public void testLookupTableAccuracy() {
+        double[] in = createInputs(100000, new Random(42));
+        double[] exact = new double[in.length];
+        double[] approx = new double[in.length];
+
+        for(double error: new double[] {1e-2, 1e-4, 1e-6}) {
+            for(ActivationFunction af: ActivationFunction.PREDEFINED) {
+                ActivationFunction.LOOKUP_TABLE_ERROR = 0.0;
+                af.f(in, exact, in.length);
+
+                ActivationFunction.LOOKUP_TABLE_ERROR = error;
+                af.f(in, approx, in.length);
+
+                for(int i = 0; i < in.length; i++) {
+                    Assert.assertEquals(exact[i], approx[i], error);
+                }
+            }
+        }
+
+        ActivationFunction.LOOKUP_TABLE_ERROR = 0.0;
+    }
+
+
+    @Test
+    public void testNonMonotoneBounds() {
+        ActivationFunction gaussian = new ActivationFunction(100, "GAUSSIAN", x -> Math.exp(-x * x), false, 0.0, 1.0, null, 2.0);
+
+        Assert.assertEquals(1.0, gaussian.getMax(-1.0, 1.0), 0.0);
+        Assert.assertEquals(0.0, gaussian.getMin(-1.0, 1.0), 0.0);
+
+        Assert.assertEquals(Math.tanh(2.0), ActivationFunction.RECTIFIED_HYPERBOLIC_TANGENT.getMax(-1.0, 2.0), 0.0);
+        Assert.assertEquals(0.0, ActivationFunction.RECTIFIED_HYPERBOLIC_TANGENT.getMin(-1.0, 2.0), 0.0);
+    }
+
+
+    @Test
+    public void testPiecewiseLinearBounds() {
+        ActivationFunction triangle = new ActivationFunction(101, "TRIANGLE", x -> Math.max(0.0, 1.0 - Math.abs(x - 1.0)), false, 0.0, 1.0, new double[] {0.0, 1.0, 2.0}, 0.0);
+
+        Assert.assertEquals(1.0, triangle.getMax(-1.0, 3.0), 0.0);
+        Assert.assertEquals(0.0, triangle.getMin(-1.0, 3.0), 0.0);
+
+        Assert.assertEquals(0.75, triangle.getMax(1.25, 1.5), 0.0);
+        Assert.assertEquals(0.5, triangle.getMin(1.25, 1.5), 0.0);
+
+        Assert.assertEquals(1.0, triangle.getMax(0.5, 1.5), 0.0);
+        Assert.assertEquals(0.5, triangle.getMin(0.5, 1.5), 0.0);
+    }
+
+
+    private static double[] createInputs(int n, Random r) {
+        double[] in = new double[n];
+        for(int i = 0; i < n; i++) {
+            in[i] = (r.nextDouble() - 0.3) * 20.0;
+        }
+        return in;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.network;
+
+
+import network.aika.Converter;
+import network.aika.Document;
+import network.aika.Model;
+import network.aika.Provider;
+import network.aika.lattice.LatticeStatistics;
+import network.aika.lattice.OrNode;
+import network.aika.neuron.INeuron;
+import network.aika.neuron.Neuron;
+import network.aika.neuron.Synapse;
+import network.aika.neuron.activation.Range.Relation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+
+/**
+ *
+ * @author Lukas Molzberger
+ */
+public class AdaptiveAndNodeSizeTest {
+
+    @After
+    public void reset() {
+        Converter.ADAPTIVE_AND_NODE_SIZE = false;
+        Converter.MAX_AND_NODE_SIZE = 6;
+        Converter.MIN_CANDIDATE_ACTIVATIONS = 100;
+    }
+
+
+    @Test
+    public void testAdaptiveAndNodeSize() {
+        Converter.ADAPTIVE_AND_NODE_SIZE = true;
+        Converter.MAX_AND_NODE_SIZE = 2;
+        Converter.MIN_CANDIDATE_ACTIVATIONS = 1;
+
+        Model m = new Model();
+        Neuron inA = m.createNeuron("A");
+        Neuron inB = m.createNeuron("B");
+        Neuron inC = m.createNeuron("C");
+        Neuron out = createOutputNeuron(m, inA, inB, inC);
+
+        Assert.assertEquals(2, out.get().getMaxAndNodeSize());
+
+        // Only the inputs A and B are part of the lattice, hence the missing input C leads to a false positive.
+        Assert.assertEquals(1, processAB(m, inA, inB, out));
+        Assert.assertEquals(1, out.get().numberOfCandidateActivations.get());
+        Assert.assertEquals(1.0, out.get().getFalsePositiveRate(), 0.001);
+
+        Converter.convert(0, null, out.get(), Collections.emptyList());
+
+        Assert.assertEquals(3, out.get().getMaxAndNodeSize());
+        Assert.assertEquals(0, out.get().numberOfCandidateActivations.get());
+
+        Assert.assertEquals(0, processAB(m, inA, inB, out));
+        Assert.assertEquals(0, out.get().numberOfCandidateActivations.get());
+
+        out.get().maxAndNodeSize = 2;
+        Converter.convert(0, null, out.get(), Collections.emptyList());
+
+        Assert.assertEquals(2, out.get().getMaxAndNodeSize());
+        Assert.assertEquals(1, processAB(m, inA, inB, out));
+    }
+
+
+    @Test
+    public void testDependenciesOfSuspendedLattice() {
+        Converter.MAX_AND_NODE_SIZE = 3;
+
+        Model m = new Model(new SuspensionTest.DummySuspensionHook(), 1);
+        Neuron inA = m.createNeuron("A");
+        Neuron inB = m.createNeuron("B");
+        Neuron inC = m.createNeuron("C");
+        Neuron out = createOutputNeuron(m, inA, inB, inC);
+
+        int numberOfDependencies = LatticeStatistics.getDependencies(out.get().node.get()).size();
+        Assert.assertEquals(numberOfDependencies, LatticeStatistics.getNumberOfDependencies(out.get().node.get()));
+
+        m.suspendAll(Provider.SuspensionMode.SAVE);
+
+        // The synapses of the conjunctive neuron are stored with its input neurons.
+        inA.get();
+        inB.get();
+        inC.get();
+
+        OrNode outputNode = out.get().node.get();
+        Assert.assertEquals(numberOfDependencies, LatticeStatistics.getNumberOfDependencies(outputNode));
+        for(OrNode.OrEntry oe: outputNode.andParents) {
+            Assert.assertTrue(oe.parent.isSuspended());
+        }
+    }
+
+
+    private int processAB(Model m, Neuron inA, Neuron inB, Neuron out) {
+        Document doc = m.createDocument("ab", 0);
+        inA.addInput(doc, 0, 1);
+        inB.addInput(doc, 1, 2);
+        doc.process();
+
+        int numberOfActivations = out.getActivations(doc, false).size();
+        doc.clearActivations();
+        return numberOfActivations;
+    }
+
+
+    private Neuron createOutputNeuron(Model m, Neuron... inputs) {
+        Neuron out = m.createNeuron("OUT");
+        out.get().setBias(5.0);
+        out.get().type = INeuron.Type.EXCITATORY;
+        out.get().logicType = INeuron.LogicType.CONJUNCTIVE;
+
+        Document doc = m.createDocument("", 0);
+        for(int i = 0; i < inputs.length; i++) {
+            Synapse.Builder sb = new Synapse.Builder()
+                    .setSynapseId(i)
+                    .setNeuron(inputs[i])
+                    .setWeight(10.0)
+                    .setBias(-10.0)
+                    .setRangeOutput(i == 0, i == 1);
+            if(i > 0) {
+                sb.addRangeRelation(Relation.BEGIN_TO_END_EQUALS, i - 1);
+            }
+
+            Synapse s = sb.getSynapse(out);
+            s.update(doc, sb.weight, sb.bias, sb.limit);
+            s.link();
+        }
+        doc.commit();
+        doc.clearActivations();
+        return out;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.network;
+
+
+import network.aika.Document;
+import network.aika.Model;
+import network.aika.Utils;
+import network.aika.lattice.AndNode;
+import network.aika.lattice.Node;
+import network.aika.neuron.INeuron;
+import network.aika.neuron.Neuron;
+import network.aika.neuron.Synapse;
+import network.aika.neuron.activation.Activation;
+import network.aika.neuron.activation.Range.Relation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ *
+ * @author Lukas Molzberger
+ */
+public class BatchInputTest {
+
+
+    @Test
+    public void testBatchInput() {
+        Model m = new Model();
+
+        Neuron inA = m.createNeuron("A");
+        Neuron inB = m.createNeuron("B");
+
+        Neuron nAB = Neuron.init(m.createNeuron("AB"),
+                5.0,
+                INeuron.Type.EXCITATORY,
+                INeuron.LogicType.CONJUNCTIVE,
+                new Synapse.Builder()
+                        .setSynapseId(0)
+                        .setNeuron(inA)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .addRangeRelation(Relation.END_TO_BEGIN_EQUALS, 1)
+                        .setRangeOutput(true, false),
+                new Synapse.Builder()
+                        .setSynapseId(1)
+                        .setNeuron(inB)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .setRangeOutput(false, true)
+        );
+
+        String txt = "abbaab";
+
+        Document seqDoc = m.createDocument(txt, 0);
+        for(int i = 0; i < txt.length(); i++) {
+            (txt.charAt(i) == 'a' ? inA : inB).addInput(seqDoc, i, i + 1);
+        }
+        seqDoc.process();
+        String expected = toString(nAB.getActivations(seqDoc, true));
+        seqDoc.clearActivations();
+
+        Document batchDoc = m.createDocument(txt, 0);
+        Document.InputBatch batch = new Document.InputBatch();
+        for(int i = txt.length() - 1; i >= 0; i--) {
+            batch.add(txt.charAt(i) == 'a' ? inA : inB, i, i + 1);
+        }
+        List<Activation> inputActs = batchDoc.addInputs(batch);
+        batchDoc.process();
+
+        Assert.assertEquals(txt.length(), inputActs.size());
+        Assert.assertEquals(txt.length() - 1, (int) inputActs.get(0).range.begin);
+
+        Assert.assertEquals("(0,2):0.987 (4,6):0.987 ", expected);
+        Assert.assertEquals(expected, toString(nAB.getActivations(batchDoc, true)));
+
+        batchDoc.clearActivations();
+    }
+
+
+    @Test
+    public void testBatchInputConjunction() {
+        Map<Integer, Integer> expected = countAndNodeActivations(false);
+        Assert.assertEquals("{2=3, 3=2, 4=1}", expected.toString());
+        Assert.assertEquals(expected, countAndNodeActivations(true));
+    }
+
+
+    private Map<Integer, Integer> countAndNodeActivations(boolean batch) {
+        Model m = new Model();
+
+        int k = 4;
+        Neuron[] in = new Neuron[k];
+        Synapse.Builder[] inputs = new Synapse.Builder[k];
+        for(int i = 0; i < k; i++) {
+            in[i] = m.createNeuron("I" + i);
+            inputs[i] = new Synapse.Builder()
+                    .setSynapseId(i)
+                    .setNeuron(in[i])
+                    .setWeight(1.0)
+                    .setBias(-1.0)
+                    .setRangeOutput(true);
+            if(i < k - 1) {
+                inputs[i].addRangeRelation(Relation.EQUALS, i + 1);
+            }
+        }
+        Neuron.init(m.createNeuron("OUT"), 0.001, INeuron.Type.EXCITATORY, INeuron.LogicType.CONJUNCTIVE, inputs);
+
+        Document doc = m.createDocument("aaaa", 0);
+        if(batch) {
+            Document.InputBatch b = new Document.InputBatch();
+            for(int i = 0; i < k; i++) {
+                b.add(in[i], 0, 1);
+            }
+            doc.addInputs(b);
+        } else {
+            for(int i = 0; i < k; i++) {
+                in[i].addInput(doc, 0, 1);
+            }
+        }
+
+        Map<Integer, Integer> results = new TreeMap<>();
+        for(Node n: doc.activatedNodes) {
+            if(n instanceof AndNode) {
+                results.merge(n.level, n.getActivations(doc).size(), Integer::sum);
+            }
+        }
+        doc.clearActivations();
+        return results;
+    }
+
+
+    private String toString(Collection<Activation> acts) {
+        StringBuilder sb = new StringBuilder();
+        for(Activation act: acts) {
+            sb.append(act.range + ":" + Utils.round(act.getFinalState().value) + " ");
+        }
+        return sb.toString();
+    }
+}
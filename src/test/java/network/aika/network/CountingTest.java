@@ -22,6 +22,8 @@ import network.aika.Model;
 import network.aika.Writable;
 import network.aika.neuron.Neuron;
 import network.aika.neuron.Synapse;
+import network.aika.lattice.LatticeStatistics;
+import network.aika.training.FrequencyCounter;
 import network.aika.training.PatternDiscovery;
 import network.aika.training.PatternDiscovery.Config;
 import network.aika.lattice.NodeActivation;
@@ -93,6 +95,63 @@ public class CountingTest {
     }
 
 
+    @Test
+    public void testFrequencyCounter() {
+        FrequencyCounter fc = new FrequencyCounter(4, 64, 2, 3, 1);
+
+        for(int id = 0; id < 200; id++) {
+            fc.add(id, 1);
+        }
+        fc.add(1000, 100);
+        fc.add(1001, 90);
+        fc.add(1002, 80);
+
+        for(int id = 0; id < 200; id++) {
+            Assert.assertTrue(fc.getEstimate(id) >= 1);
+        }
+        Assert.assertTrue(fc.getEstimate(1001) >= 90);
+        Assert.assertEquals("[1000, 1001, 1002]", fc.getHeavyHitters().keySet().toString());
+
+        fc.reset();
+        Assert.assertEquals(0, fc.getEstimate(1000));
+        Assert.assertEquals(0, fc.numberOfCountedActivations);
+        Assert.assertTrue(fc.getHeavyHitters().isEmpty());
+    }
+
+
+    @Test
+    public void testFrequencyCounterDiscovery() {
+        Assert.assertTrue(discoverWithFrequencyCounter(2) < discoverWithFrequencyCounter(1));
+    }
+
+
+    private int discoverWithFrequencyCounter(long minFrequency) {
+        Model m = new Model();
+
+        Neuron inA = m.createNeuron("inA");
+        Neuron inB = m.createNeuron("inB");
+
+        Document doc = m.createDocument("aaaaaaaaaa", 0);
+
+        inA.addInput(doc, 0, 1);
+        inA.addInput(doc, 1, 2);
+        inA.addInput(doc, 2, 3);
+        inB.addInput(doc, 3, 4);
+
+        doc.process();
+
+        FrequencyCounter fc = new FrequencyCounter(4, 1024, minFrequency, 10, 1);
+        PatternDiscovery.discover(doc, new Config().setFrequencyCounter(fc));
+
+        Assert.assertEquals(3, fc.getEstimate(inA.get().outputNode.id));
+        Assert.assertEquals(1, fc.getEstimate(inB.get().outputNode.id));
+
+        int numberOfNodes = LatticeStatistics.create(m).numberOfNodes;
+        doc.clearActivations();
+        return numberOfNodes;
+    }
+
+
     public void count(NodeActivation act) {
         NodeStatistic stat = ((NodeStatistic) act.node.statistic);
 
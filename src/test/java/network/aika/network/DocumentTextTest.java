@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.network;
+
+
+import network.aika.Document;
+import network.aika.Model;
+import network.aika.Rope;
+import network.aika.neuron.Neuron;
+import network.aika.neuron.activation.Activation;
+import network.aika.neuron.activation.Range;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+
+/**
+ *
+ * @author Lukas Molzberger
+ */
+public class DocumentTextTest {
+
+
+    @Test
+    public void testCharBufferDocument() {
+        Model m = new Model();
+        Neuron in = m.createNeuron("IN");
+
+        ByteBuffer bytes = ByteBuffer.wrap("the quick brown fox".getBytes(StandardCharsets.UTF_16BE));
+        CharBuffer txt = bytes.asCharBuffer();
+
+        Document doc = m.createDocument(txt, 0);
+        Activation act = in.addInput(doc, 4, 9);
+
+        Assert.assertEquals("quick", act.getText());
+        Assert.assertEquals("brown", doc.getTextSequence(new Range(10, 15)).toString());
+        Assert.assertEquals("the quick brown fox", doc.getContent());
+
+        doc.append(" jumps");
+        Assert.assertEquals("fox jumps", doc.getText(new Range(16, 25)));
+
+        doc.clearActivations();
+    }
+
+
+    @Test
+    public void testRope() {
+        Random r = new Random(42);
+        StringBuilder expected = new StringBuilder("0123456789");
+        Rope rope = new Rope("0123456789");
+
+        for(int i = 0; i < 1000; i++) {
+            int begin = r.nextInt(expected.length() + 1);
+            int end = begin + r.nextInt(expected.length() - begin + 1);
+            String txt = Integer.toString(r.nextInt(1000));
+
+            switch(r.nextInt(3)) {
+                case 0:
+                    expected.append(txt);
+                    rope.append(txt);
+                    break;
+                case 1:
+                    expected.replace(begin, end, txt);
+                    rope.replace(begin, end, txt);
+                    break;
+                case 2:
+                    expected.replace(begin, end, "");
+                    rope.replace(begin, end, "");
+                    break;
+            }
+
+            Assert.assertEquals(expected.length(), rope.length());
+
+            begin = r.nextInt(expected.length() + 1);
+            end = begin + r.nextInt(expected.length() - begin + 1);
+            Assert.assertEquals(expected.substring(begin, end), rope.subSequence(begin, end).toString());
+            if(begin < end) {
+                Assert.assertEquals(expected.charAt(begin), rope.charAt(begin));
+            }
+        }
+
+        Assert.assertEquals(expected.toString(), rope.toString());
+    }
+
+
+    @Test
+    public void testRopeAppend() {
+        StringBuilder expected = new StringBuilder();
+        Rope rope = new Rope();
+
+        for(int i = 0; i < 1000; i++) {
+            String txt = Integer.toString(i);
+            expected.append(txt);
+            rope.append(txt);
+
+            Assert.assertEquals(expected.length(), rope.length());
+            Assert.assertEquals(expected.charAt(expected.length() - 1), rope.charAt(rope.length() - 1));
+        }
+
+        rope.replace(5, 2000, "x");
+        expected.replace(5, 2000, "x");
+        Assert.assertEquals(expected.toString(), rope.toString());
+        Assert.assertEquals(expected.substring(3, 100), rope.subSequence(3, 100).toString());
+    }
+}
@@ -21,6 +21,9 @@ import network.aika.Document;
 import network.aika.Model;
 import network.aika.neuron.Neuron;
 import network.aika.neuron.Synapse;
+import network.aika.neuron.activation.Activation;
+import network.aika.neuron.activation.Candidate;
+import network.aika.neuron.activation.Interpretation;
 import network.aika.neuron.activation.Range;
 import network.aika.neuron.activation.Range.Relation;
 import network.aika.neuron.INeuron;
@@ -29,6 +32,10 @@ import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  *
  * @author Lukas Molzberger
@@ -531,4 +538,141 @@ public class InterpretationSearchTest {
 
         Assert.assertEquals(13, doc.searchNodeIdCounter);
     }
+
+
+    @Test
+    public void testDegradeOnTimeout() {
+        Model m = new Model();
+
+        Neuron[] inputs = new Neuron[3];
+        Neuron[] outputs = new Neuron[3];
+        initCompetingNeurons(m, inputs, outputs);
+
+        Document doc = m.createDocument("foobar", 0);
+        for(Neuron in: inputs) {
+            in.addInput(doc, 0, 1);
+        }
+
+        try {
+            doc.process(-1L);
+            Assert.fail();
+        } catch(SearchNode.TimeoutException e) {
+        }
+        doc.clearActivations();
+
+        doc = m.createDocument("foobar", 0);
+        for(Neuron in: inputs) {
+            in.addInput(doc, 0, 1);
+        }
+
+        doc.process(-1L, true);
+
+        System.out.println(doc.activationsToString());
+
+        Assert.assertTrue(doc.approximate);
+        for(Candidate c: doc.candidates) {
+            Assert.assertNotEquals(SearchNode.Decision.UNKNOWN, c.activation.finalDecision);
+        }
+
+        int numberOfFinalActs = 0;
+        for(Neuron n: outputs) {
+            numberOfFinalActs += n.getActivations(doc, true).size();
+        }
+        Assert.assertEquals(1, numberOfFinalActs);
+
+        doc.clearActivations();
+    }
+
+
+    @Test
+    public void testTopKInterpretations() {
+        SearchNode.NUMBER_OF_INTERPRETATIONS = 3;
+        try {
+            Model m = new Model();
+
+            Neuron[] inputs = new Neuron[3];
+            Neuron[] outputs = new Neuron[3];
+            initCompetingNeurons(m, inputs, outputs);
+
+            Document doc = m.createDocument("foobar", 0);
+            for(Neuron in: inputs) {
+                in.addInput(doc, 0, 1);
+            }
+
+            doc.process();
+
+            List<Interpretation> results = doc.getInterpretations();
+            results.forEach(in -> System.out.println(in));
+
+            Assert.assertTrue(results.size() > 1);
+            Assert.assertTrue(results.size() <= 3);
+            for(int i = 1; i < results.size(); i++) {
+                Assert.assertTrue(results.get(i - 1).getWeight() >= results.get(i).getWeight());
+            }
+
+            Interpretation best = results.get(0);
+            Assert.assertEquals(doc.selectedSearchNode.accumulatedWeight, best.getWeight(), 0.0001);
+
+            Map<Activation, Double> bestValues = new TreeMap<>(Activation.ACTIVATION_ID_COMP);
+            for(Candidate c: doc.candidates) {
+                Assert.assertEquals(c.activation.finalDecision, best.getDecision(c.activation));
+                bestValues.put(c.activation, c.activation.getFinalState().value);
+            }
+
+            Interpretation second = results.get(1);
+            second.materialize();
+            for(Candidate c: doc.candidates) {
+                Assert.assertEquals(second.getDecision(c.activation), c.activation.finalDecision);
+                Assert.assertEquals(c.activation.finalDecision == SearchNode.Decision.SELECTED, c.activation.isFinalActivation());
+            }
+            Assert.assertNotEquals(best.getSelectedActivations(), second.getSelectedActivations());
+
+            best.materialize();
+            for(Candidate c: doc.candidates) {
+                Assert.assertEquals(best.getDecision(c.activation), c.activation.finalDecision);
+                Assert.assertEquals(bestValues.get(c.activation), c.activation.getFinalState().value, 0.0001);
+                Assert.assertEquals(SearchNode.Decision.UNKNOWN, c.activation.decision);
+            }
+
+            doc.clearActivations();
+        } finally {
+            SearchNode.NUMBER_OF_INTERPRETATIONS = 1;
+        }
+    }
+
+
+    /**
+     * Creates three output neurons with increasing biases that suppress each other through an inhibitory neuron.
+     */
+    static void initCompetingNeurons(Model m, Neuron[] inputs, Neuron[] outputs) {
+        Neuron inhibN = m.createNeuron("INHIB");
+        Neuron.init(inhibN, 0.0, ActivationFunction.LIMITED_RECTIFIED_LINEAR_UNIT, INeuron.Type.INHIBITORY, INeuron.LogicType.DISJUNCTIVE);
+
+        for(int i = 0; i < inputs.length; i++) {
+            inputs[i] = m.createNeuron("IN-" + i);
+            outputs[i] = Neuron.init(m.createNeuron("OUT-" + i), 1.0 + i, ActivationFunction.RECTIFIED_HYPERBOLIC_TANGENT, INeuron.Type.EXCITATORY, INeuron.LogicType.CONJUNCTIVE,
+                    new Synapse.Builder()
+                            .setSynapseId(0)
+                            .setNeuron(inputs[i])
+                            .setWeight(10.0)
+                            .setBias(-10.0)
+                            .setRangeOutput(true),
+                    new Synapse.Builder()
+                            .setSynapseId(1)
+                            .setNeuron(inhibN)
+                            .setWeight(-100.0)
+                            .setBias(0.0)
+                            .setRecurrent(true)
+                            .addRangeRelation(Relation.EQUALS, 0)
+            );
+
+            inhibN.addSynapse(
+                    new Synapse.Builder()
+                            .setNeuron(outputs[i])
+                            .setWeight(1.0)
+                            .setBias(0.0)
+                            .setRangeOutput(true)
+            );
+        }
+    }
 }
@@ -110,4 +110,42 @@ public class OverlappingOrTest {
         doc.clearActivations();
     }
 
+
+    @Test
+    public void testIdentityLookup() {
+        Model m = new Model();
+
+        Neuron inA = m.createNeuron("A");
+        Neuron inB = m.createNeuron("B");
+
+        Neuron outIdentity = createOrNeuron(m, "OUT-ID", true, inA, inB);
+        Neuron outPlain = createOrNeuron(m, "OUT", false, inA, inB);
+
+        Document doc = m.createDocument("aaaaaaaaaa", 0);
+
+        inA.addInput(doc, 0, 1);
+        inB.addInput(doc, 0, 1);
+
+        // Activations of different identity inputs are kept apart, otherwise the same range is sufficient.
+        Assert.assertEquals(2, outIdentity.getActivations(doc, false).size());
+        Assert.assertEquals(1, outPlain.getActivations(doc, false).size());
+
+        doc.clearActivations();
+    }
+
+
+    private Neuron createOrNeuron(Model m, String label, boolean identity, Neuron... inputs) {
+        Synapse.Builder[] inputSyns = new Synapse.Builder[inputs.length];
+        for(int i = 0; i < inputs.length; i++) {
+            inputSyns[i] = new Synapse.Builder()
+                    .setSynapseId(i)
+                    .setNeuron(inputs[i])
+                    .setWeight(1.0)
+                    .setRecurrent(false)
+                    .setIdentity(identity)
+                    .setBias(0.0)
+                    .setRangeOutput(true);
+        }
+        return Neuron.init(m.createNeuron(label), 0.0, INeuron.Type.EXCITATORY, INeuron.LogicType.DISJUNCTIVE, inputSyns);
+    }
 }
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.network;
+
+
+import network.aika.Document;
+import network.aika.Model;
+import network.aika.neuron.INeuron;
+import network.aika.neuron.Neuron;
+import network.aika.neuron.Synapse;
+import network.aika.neuron.activation.Activation;
+import network.aika.neuron.activation.Range.Relation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ *
+ * @author Lukas Molzberger
+ */
+public class ParallelCommitTest {
+
+    private static final int NUMBER_OF_INPUTS = 5;
+
+
+    @Test
+    public void testParallelCommit() {
+        String expected = process(1);
+        Assert.assertFalse(expected.isEmpty());
+
+        for(int i = 0; i < 5; i++) {
+            Assert.assertEquals(expected, process(8));
+        }
+    }
+
+
+    private String process(int numberOfThreads) {
+        Model m = new Model();
+
+        Neuron[] in = new Neuron[NUMBER_OF_INPUTS];
+        for(int i = 0; i < NUMBER_OF_INPUTS; i++) {
+            in[i] = m.createNeuron("I" + i);
+        }
+
+        List<Neuron> outputs = new ArrayList<>();
+        Document trainDoc = m.createDocument("", 0);
+        for(int a = 0; a < NUMBER_OF_INPUTS; a++) {
+            for(int b = 0; b < NUMBER_OF_INPUTS; b++) {
+                if(a == b) continue;
+
+                outputs.add(createOutputNeuron(trainDoc, m, in[a], in[b]));
+                outputs.add(createOutputNeuron(trainDoc, m, in[a], in[b], in[(a + b) % NUMBER_OF_INPUTS]));
+            }
+        }
+
+        Map<INeuron, Long> conversionTimes = trainDoc.commit(numberOfThreads);
+        Assert.assertEquals(outputs.size(), conversionTimes.size());
+        trainDoc.clearActivations();
+
+        Random r = new Random(7);
+        StringBuilder txt = new StringBuilder();
+        int[] tokens = new int[40];
+        for(int i = 0; i < tokens.length; i++) {
+            tokens[i] = r.nextInt(NUMBER_OF_INPUTS);
+            txt.append((char) ('a' + tokens[i]));
+        }
+
+        Document doc = m.createDocument(txt.toString(), 0);
+        for(int i = 0; i < tokens.length; i++) {
+            in[tokens[i]].addInput(doc, i, i + 1);
+        }
+        doc.process();
+
+        StringBuilder sb = new StringBuilder();
+        for(Neuron n: outputs) {
+            for(Activation act: n.getActivations(doc, true)) {
+                sb.append(n.getLabel() + act.range + " ");
+            }
+        }
+        doc.clearActivations();
+
+        return sb.toString();
+    }
+
+
+    private Neuron createOutputNeuron(Document doc, Model m, Neuron... inputs) {
+        StringBuilder label = new StringBuilder();
+        for(Neuron n: inputs) {
+            label.append(n.getLabel());
+        }
+        Neuron out = m.createNeuron(label.toString());
+        out.get().setBias(5.0);
+        out.get().type = INeuron.Type.EXCITATORY;
+        out.get().logicType = INeuron.LogicType.CONJUNCTIVE;
+
+        for(int i = 0; i < inputs.length; i++) {
+            Synapse.Builder sb = new Synapse.Builder()
+                    .setSynapseId(i)
+                    .setNeuron(inputs[i])
+                    .setWeight(10.0)
+                    .setBias(-10.0)
+                    .setRangeOutput(i == 0, i == inputs.length - 1);
+            if(i > 0) {
+                sb.addRangeRelation(Relation.BEGIN_TO_END_EQUALS, i - 1);
+            }
+
+            Synapse s = sb.getSynapse(out);
+            s.update(doc, sb.weight, sb.bias, sb.limit);
+            s.link();
+        }
+        return out;
+    }
+}
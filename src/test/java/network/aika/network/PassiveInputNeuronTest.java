@@ -2,6 +2,7 @@ package network.aika.network;
 
 import network.aika.Document;
 import network.aika.Model;
+import network.aika.PassiveInputFunction;
 import network.aika.neuron.INeuron;
 import network.aika.neuron.Neuron;
 import network.aika.neuron.Synapse;
@@ -10,6 +11,8 @@ import network.aika.neuron.activation.Range;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class PassiveInputNeuronTest {
 
 
@@ -53,4 +56,65 @@ public class PassiveInputNeuronTest {
 
         Assert.assertTrue(outAct.isFinalActivation());
     }
+
+
+    @Test
+    public void testPassiveInputCache() {
+        AtomicInteger deterministicCalls = new AtomicInteger();
+        Assert.assertTrue(processPassiveInput((s, oAct) -> {
+            deterministicCalls.incrementAndGet();
+            return 1.0;
+        }));
+        Assert.assertEquals(1, deterministicCalls.get());
+
+        AtomicInteger nonDeterministicCalls = new AtomicInteger();
+        Assert.assertTrue(processPassiveInput(new PassiveInputFunction() {
+            @Override
+            public double getActivationValue(Synapse s, Activation outputActivation) {
+                nonDeterministicCalls.incrementAndGet();
+                return 1.0;
+            }
+
+            @Override
+            public boolean isDeterministic() {
+                return false;
+            }
+        }));
+        Assert.assertTrue(nonDeterministicCalls.get() > 1);
+    }
+
+
+    private boolean processPassiveInput(PassiveInputFunction f) {
+        Model m = new Model();
+        Document doc = m.createDocument("aaaaaaaaaa", 0);
+
+        Neuron inA = m.createNeuron("A");
+
+        Neuron inB = m.createNeuron("B");
+        Neuron.registerPassiveInputNeuron(inB, f);
+
+        Neuron out = Neuron.init(m.createNeuron("OUT"), 5.0, INeuron.Type.EXCITATORY, INeuron.LogicType.CONJUNCTIVE,
+                new Synapse.Builder()
+                        .setSynapseId(0)
+                        .setNeuron(inA)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .setRangeOutput(true),
+                new Synapse.Builder()
+                        .setSynapseId(1)
+                        .setNeuron(inB)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .addRangeRelation(Range.Relation.EQUALS, 0)
+        );
+
+        inA.addInput(doc,
+                new Activation.Builder()
+                        .setRange(0, 1)
+        );
+
+        doc.process();
+
+        return out.getActivation(doc, new Range(0, 1), false).isFinalActivation();
+    }
 }
@@ -1,9 +1,11 @@
 package network.aika.network;
 
+import network.aika.ActivationFunction;
 import network.aika.Document;
 import network.aika.Model;
 import network.aika.neuron.Neuron;
 import network.aika.neuron.Synapse;
+import network.aika.neuron.activation.Activation;
 import network.aika.neuron.activation.Range;
 import network.aika.neuron.INeuron;
 import org.junit.Assert;
@@ -64,4 +66,88 @@ public class PositiveFeedbackLoopTest {
         Assert.assertFalse(nC.getActivations(doc, true).isEmpty());
         Assert.assertFalse(nD.getActivations(doc, true).isEmpty());
     }
+
+
+    /**
+     * The activation function of neuron C is decreasing, hence the positive loop between C and D acts like a
+     * negative feedback loop. Since the gain of the loop is larger than one, the undamped rounds alternate between
+     * zero and one until the maximum number of rounds is exceeded. With damping the rounds converge to the fixed
+     * point {@code c = 1 / (1 + 1.5)}.
+     */
+    @Test
+    public void testRecurrentDamping() {
+        try {
+            processOscillatingLoop();
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Maximum number of rounds reached"));
+        }
+
+        Document.RECURRENT_DAMPING = 0.3;
+        try {
+            Document doc = processOscillatingLoop();
+
+            Activation actA = doc.getActivations(false).stream().filter(act -> act.getLabel().equals("IN A")).findAny().get();
+            Activation actC = doc.getActivations(false).stream().filter(act -> act.getLabel().equals("N C")).findAny().get();
+            Activation actD = doc.getActivations(false).stream().filter(act -> act.getLabel().equals("N D")).findAny().get();
+
+            Assert.assertEquals(-1, actA.recurrentComponent);
+            Assert.assertTrue(actC.recurrentComponent >= 0);
+            Assert.assertEquals(actC.recurrentComponent, actD.recurrentComponent);
+
+            Assert.assertEquals(0.4, actC.getFinalState().value, 0.01);
+            Assert.assertEquals(0.4, actD.getFinalState().value, 0.01);
+        } finally {
+            Document.RECURRENT_DAMPING = 0.0;
+        }
+    }
+
+
+    private Document processOscillatingLoop() {
+        Model m = new Model();
+
+        ActivationFunction decreasing = new ActivationFunction(
+                10,
+                "DECREASING",
+                x -> x <= 0.0 ? 0.0 : Math.max(0.0, Math.min(1.0, 2.0 - x)),
+                false, 0.0, 1.0, new double[] {0.0, 1.0, 2.0}, 0.0
+        );
+        m.registerActivationFunction(decreasing);
+
+        Neuron inA = m.createNeuron("IN A");
+
+        Neuron nC = m.createNeuron("N C");
+        Neuron nD = m.createNeuron("N D");
+
+        Neuron.init(nC, 0.0, decreasing, INeuron.Type.EXCITATORY, INeuron.LogicType.DISJUNCTIVE,
+                new Synapse.Builder()
+                        .setSynapseId(0)
+                        .setNeuron(inA)
+                        .setWeight(1.0)
+                        .setBias(0.0)
+                        .setRangeOutput(true),
+                new Synapse.Builder()
+                        .setSynapseId(1)
+                        .setNeuron(nD)
+                        .setWeight(1.5)
+                        .setBias(0.0)
+                        .setRecurrent(true)
+                        .addRangeRelation(Range.Relation.EQUALS, 0)
+        );
+
+        Neuron.init(nD, 0.0, ActivationFunction.LIMITED_RECTIFIED_LINEAR_UNIT, INeuron.Type.EXCITATORY, INeuron.LogicType.DISJUNCTIVE,
+                new Synapse.Builder()
+                        .setSynapseId(0)
+                        .setNeuron(nC)
+                        .setWeight(1.0)
+                        .setBias(0.0)
+                        .setRangeOutput(true)
+        );
+
+        Document doc = m.createDocument("Bla ");
+        inA.addInput(doc, 0, 3);
+
+        doc.process();
+        return doc;
+    }
 }
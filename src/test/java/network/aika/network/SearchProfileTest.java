@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.network;
+
+
+import network.aika.Document;
+import network.aika.Model;
+import network.aika.neuron.Neuron;
+import network.aika.neuron.activation.Candidate;
+import network.aika.neuron.activation.SearchNode;
+import network.aika.neuron.activation.SearchProfile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+
+/**
+ *
+ * @author Lukas Molzberger
+ */
+public class SearchProfileTest {
+
+
+    @After
+    public void tearDown() {
+        SearchNode.ENABLE_PROFILING = false;
+    }
+
+
+    @Test
+    public void testSearchProfile() {
+        SearchNode.ENABLE_PROFILING = true;
+
+        Model m = new Model();
+
+        Neuron[] inputs = new Neuron[3];
+        Neuron[] outputs = new Neuron[3];
+        InterpretationSearchTest.initCompetingNeurons(m, inputs, outputs);
+
+        Document doc = m.createDocument("foobar", 0);
+        for(Neuron in: inputs) {
+            in.addInput(doc, 0, 1);
+        }
+
+        doc.process();
+
+        Assert.assertFalse(outputs[2].getActivations(doc, true).isEmpty());
+
+        SearchProfile profile = doc.searchProfile;
+        Assert.assertNotNull(profile);
+        Assert.assertTrue(profile.numberOfSearchNodes > 1);
+        Assert.assertEquals(profile.numberOfSearchNodes - 1, profile.numberOfCachedSearchNodes + profile.numberOfComputedSearchNodes);
+
+        int[] depth = profile.getDepthDistribution();
+        Assert.assertEquals(doc.candidates.size() + 1, depth.length);
+        Assert.assertEquals(1, depth[0]);
+
+        String json = profile.toJson();
+        Assert.assertTrue(json.startsWith("{\"documentId\":" + doc.id + ","));
+        Assert.assertTrue(json.endsWith("}"));
+        Assert.assertTrue(json.contains("\"searchNodes\":" + profile.numberOfSearchNodes + ","));
+        Assert.assertTrue(json.contains("\"depthDistribution\":" + Arrays.toString(depth).replace(" ", "")));
+        Assert.assertEquals(doc.candidates.size(), json.split("\"activationId\":", -1).length - 1);
+        for(Neuron n: outputs) {
+            Assert.assertTrue(json.contains("{\"neuron\":\"" + n.getLabel() + "\",\"candidates\":1,"));
+        }
+
+        int numberOfFrames = 0;
+        for(Candidate c: doc.candidates) {
+            for(long t: c.debugProcessTime) {
+                if(t > 0) numberOfFrames++;
+            }
+        }
+
+        String stacks = profile.toCollapsedStacks();
+        Assert.assertTrue(stacks.contains("search;OUT-2;"));
+        Assert.assertEquals(numberOfFrames, stacks.split("\n").length);
+        for(String stack: stacks.split("\n")) {
+            Assert.assertTrue(stack, stack.matches("search;(INHIB|OUT-[0-2]);\\d+:\\S+;[SE] \\d+"));
+        }
+    }
+}
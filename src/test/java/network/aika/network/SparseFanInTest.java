@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.aika.network;
+
+
+import network.aika.ActivationFunction;
+import network.aika.Document;
+import network.aika.Model;
+import network.aika.neuron.INeuron;
+import network.aika.neuron.Neuron;
+import network.aika.neuron.Synapse;
+import network.aika.neuron.activation.Activation;
+import network.aika.neuron.activation.Range;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ *
+ * @author Lukas Molzberger
+ */
+public class SparseFanInTest {
+
+    private static final int N = 50;
+
+
+    @Test
+    public void testSparseBounds() {
+        try {
+            INeuron.SPARSE_FAN_IN_THRESHOLD = Integer.MAX_VALUE;
+            Activation expected = processHub();
+
+            INeuron.SPARSE_FAN_IN_THRESHOLD = 10;
+            Activation act = processHub();
+
+            Assert.assertEquals(expected.upperBound, act.upperBound, 0.000001);
+            Assert.assertEquals(expected.lowerBound, act.lowerBound, 0.000001);
+            Assert.assertEquals(expected.getFinalState().value, act.getFinalState().value, 0.000001);
+        } finally {
+            INeuron.SPARSE_FAN_IN_THRESHOLD = 1000;
+        }
+    }
+
+
+    @Test
+    public void testIncrementalBoundsWithoutEpsilon() {
+        try {
+            Document.BOUND_PROPAGATION_EPSILON = 0.0;
+
+            Activation expected = processHub();
+
+            Document.INCREMENTAL_BOUNDS = true;
+            Activation act = processHub();
+
+            Assert.assertEquals(expected.upperBound, act.upperBound, 0.000001);
+            Assert.assertEquals(expected.lowerBound, act.lowerBound, 0.000001);
+            Assert.assertEquals(expected.getFinalState().value, act.getFinalState().value, 0.000001);
+        } finally {
+            Document.INCREMENTAL_BOUNDS = false;
+            Document.BOUND_PROPAGATION_EPSILON = 0.01;
+        }
+    }
+
+
+    private Activation processHub() {
+        Model m = new Model();
+
+        Neuron hub = m.createNeuron("HUB");
+        Neuron.init(hub, 0.0, ActivationFunction.LIMITED_RECTIFIED_LINEAR_UNIT, INeuron.Type.INHIBITORY, INeuron.LogicType.DISJUNCTIVE);
+
+        Neuron[] inA = new Neuron[N];
+        Neuron[] inB = new Neuron[N];
+        for(int i = 0; i < N; i++) {
+            inA[i] = m.createNeuron("A-" + i);
+            inB[i] = m.createNeuron("B-" + i);
+
+            Neuron e = Neuron.init(m.createNeuron("E-" + i), 0.0, ActivationFunction.RECTIFIED_HYPERBOLIC_TANGENT, INeuron.Type.EXCITATORY, INeuron.LogicType.DISJUNCTIVE,
+                    new Synapse.Builder()
+                            .setSynapseId(0)
+                            .setNeuron(inA[i])
+                            .setWeight(0.5)
+                            .setBias(0.0)
+                            .setRangeOutput(true),
+                    new Synapse.Builder()
+                            .setSynapseId(1)
+                            .setNeuron(inB[i])
+                            .setWeight(0.5)
+                            .setBias(0.0)
+                            .setRangeOutput(true)
+            );
+
+            hub.addSynapse(
+                    new Synapse.Builder()
+                            .setNeuron(e)
+                            .setWeight(0.01 * (i % 7))
+                            .setBias(0.0)
+                            .setRangeOutput(true)
+            );
+        }
+
+        Document doc = m.createDocument("aaaa", 0);
+        for(int i = 0; i < N; i++) {
+            inA[i].addInput(doc, new Activation.Builder().setRange(0, 1).setValue(0.1 * (i % 3)));
+        }
+        for(int i = 0; i < N; i++) {
+            inB[i].addInput(doc, new Activation.Builder().setRange(0, 1).setValue(0.2 * (i % 5)));
+        }
+
+        doc.process();
+
+        return hub.getActivation(doc, new Range(0, 1), false);
+    }
+}
@@ -17,20 +17,39 @@
 package network.aika.network;
 
 
+import network.aika.ActivationFunction;
+import network.aika.DistanceFunction;
 import network.aika.Document;
 import network.aika.Model;
 import network.aika.Provider;
 import network.aika.SuspensionHook;
+import network.aika.lattice.AndNode;
+import network.aika.lattice.AndNode.Refinement;
+import network.aika.lattice.AndNode.RelationsMap;
+import network.aika.lattice.InputNode;
+import network.aika.lattice.LatticeCollector;
+import network.aika.lattice.LatticeCompactor;
+import network.aika.lattice.PatternKey;
 import network.aika.neuron.Neuron;
 import network.aika.neuron.Synapse;
 import network.aika.neuron.INeuron;
+import network.aika.neuron.activation.Range;
 import network.aika.neuron.activation.Range.Relation;
+import network.aika.neuron.relation.RangeRelation;
+import network.aika.training.PatternDiscovery;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 /**
  *
@@ -126,6 +145,481 @@ public class SuspensionTest {
 
 
 
+    @Test
+    public void testSuspendCustomFunctions() {
+        Model m = new Model(new DummySuspensionHook(), 1);
+
+        ActivationFunction hardSigmoid = new ActivationFunction(100, "HARD_SIGMOID", x -> Math.max(0.0, Math.min(1.0, 0.5 * x)), true, 0.0, 1.0, new double[] {0.0, 2.0}, 0.0);
+        DistanceFunction exponential = new DistanceFunction(100, "EXPONENTIAL", (iAct, oAct) -> Math.pow(0.5, Math.abs(oAct.range.begin - iAct.range.begin)));
+        m.registerActivationFunction(hardSigmoid);
+        m.registerDistanceFunction(exponential);
+
+        Neuron inA = m.createNeuron("A");
+        int idA = inA.id;
+
+        Neuron outB = Neuron.init(m.createNeuron("B"),
+                1.0,
+                hardSigmoid,
+                INeuron.Type.EXCITATORY,
+                INeuron.LogicType.CONJUNCTIVE,
+                new Synapse.Builder()
+                        .setSynapseId(0)
+                        .setNeuron(inA)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .setDistanceFunction(exponential)
+                        .setRangeOutput(true)
+        );
+        int idB = outB.id;
+
+        m.suspendAll(Provider.SuspensionMode.SAVE);
+
+        Assert.assertTrue(outB.isSuspended());
+
+        // Reactivate
+        inA = m.lookupNeuron(idA);
+        outB = m.lookupNeuron(idB);
+
+        Assert.assertSame(hardSigmoid, outB.get().activationFunction);
+        Assert.assertSame(exponential, inA.get().outputSynapses.firstKey().distanceFunction);
+
+        Document doc = m.createDocument("Bla");
+        inA.addInput(doc, 0, 1);
+        doc.process();
+
+        Assert.assertEquals(0.5, outB.getActivations(doc, true).iterator().next().getFinalState().value, 0.001);
+    }
+
+
+
+
+    @Test
+    public void testReadUnversionedNeuron() throws IOException {
+        DummySuspensionHook sh = new DummySuspensionHook();
+        Model m = new Model(sh, 1);
+
+        Neuron inA = m.createNeuron("A");
+
+        Neuron outB = Neuron.init(m.createNeuron("B"),
+                1.0,
+                ActivationFunction.RECTIFIED_HYPERBOLIC_TANGENT,
+                INeuron.Type.EXCITATORY,
+                INeuron.LogicType.CONJUNCTIVE,
+                new Synapse.Builder()
+                        .setSynapseId(0)
+                        .setNeuron(inA)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .setDistanceFunction(DistanceFunction.DEGRADING)
+                        .setRangeOutput(true)
+        );
+
+        Document doc = m.createDocument("Bla");
+        inA.addInput(doc, 0, 1);
+        doc.process();
+        double expectedValue = outB.getActivations(doc, true).iterator().next().getFinalState().value;
+        doc.clearActivations();
+
+        byte[] dataA = writeUnversionedNeuron(inA.get());
+        byte[] dataB = writeUnversionedNeuron(outB.get());
+
+        m.suspendAll(Provider.SuspensionMode.SAVE);
+        sh.store(inA.id, dataA);
+        sh.store(outB.id, dataB);
+
+        INeuron n = outB.get();
+        Assert.assertEquals("B", n.label);
+        Assert.assertSame(ActivationFunction.RECTIFIED_HYPERBOLIC_TANGENT, n.activationFunction);
+        Assert.assertNull(n.maxAndNodeSize);
+        Assert.assertSame(DistanceFunction.DEGRADING, inA.get().outputSynapses.firstKey().distanceFunction);
+
+        doc = m.createDocument("Bla");
+        inA.addInput(doc, 0, 1);
+        doc.process();
+
+        Assert.assertEquals(expectedValue, outB.getActivations(doc, true).iterator().next().getFinalState().value, 0.0);
+    }
+
+
+    /**
+     * Writes a neuron in the unversioned format, which referenced the functions by their name.
+     */
+    private static byte[] writeUnversionedNeuron(INeuron n) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(baos))) {
+            out.writeBoolean(true);
+
+            out.writeBoolean(true);
+            out.writeUTF(n.label);
+            out.writeBoolean(n.type != null);
+            if(n.type != null) {
+                out.writeUTF(n.type.name());
+            }
+            out.writeBoolean(n.logicType != null);
+            if(n.logicType != null) {
+                out.writeUTF(n.logicType.name());
+            }
+            out.writeBoolean(false);
+            out.writeBoolean(false);
+
+            out.writeDouble(n.bias);
+            out.writeDouble(n.biasSum);
+            out.writeDouble(n.posDirSum);
+            out.writeDouble(n.negDirSum);
+            out.writeDouble(n.negRecSum);
+            out.writeDouble(n.posRecSum);
+            out.writeDouble(n.posPassiveSum);
+
+            out.writeDouble(n.requiredSum);
+
+            out.writeInt(n.numDisjunctiveSynapses);
+
+            out.writeUTF(n.activationFunction.name);
+
+            out.writeInt(n.outputNode.id);
+
+            out.writeBoolean(true);
+            out.writeInt(n.node.id);
+
+            out.writeInt(n.numberOfInputSynapses);
+            for (Synapse s : n.inputSynapses.values()) {
+                out.writeBoolean(true);
+                writeUnversionedSynapse(out, s);
+                out.writeBoolean(false);
+            }
+            out.writeBoolean(false);
+            for (Synapse s : n.outputSynapses.values()) {
+                out.writeBoolean(true);
+                writeUnversionedSynapse(out, s);
+            }
+            out.writeBoolean(false);
+
+            out.writeInt(0);
+        }
+        return baos.toByteArray();
+    }
+
+
+    @Test
+    public void testReadUnversionedSynapse() throws IOException {
+        Model m = new Model(new DummySuspensionHook(), 1);
+
+        Neuron inA = m.createNeuron("A");
+        Neuron outB = m.createNeuron("B");
+
+        Synapse s = new Synapse(inA, outB, 0, new Synapse.Key(false, 0, Range.Output.DIRECT, false), new TreeMap<>(), DistanceFunction.DEGRADING);
+        s.weight = 2.0;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            writeUnversionedSynapse(dos, s);
+        }
+
+        Synapse rs = Synapse.read(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())), m, 1);
+
+        Assert.assertSame(DistanceFunction.DEGRADING, rs.distanceFunction);
+        Assert.assertEquals(2.0, rs.weight, 0.0);
+        Assert.assertEquals(inA, rs.input);
+        Assert.assertEquals(outB, rs.output);
+    }
+
+
+    /**
+     * Writes a synapse in the unversioned format, which referenced the distance function by its name.
+     */
+    private static void writeUnversionedSynapse(DataOutput out, Synapse s) throws IOException {
+        out.writeInt(s.id);
+        s.key.write(out);
+        out.writeInt(s.input.id);
+        out.writeInt(s.output.id);
+
+        out.writeInt(s.relations.size());
+        for(Map.Entry<Integer, network.aika.neuron.relation.Relation> me: s.relations.entrySet()) {
+            out.writeInt(me.getKey());
+            me.getValue().write(out);
+        }
+
+        out.writeBoolean(true);
+        out.writeUTF(s.distanceFunction.name);
+
+        out.writeDouble(s.weight);
+        out.writeDouble(s.bias);
+        out.writeDouble(s.limit);
+        out.writeBoolean(s.isConjunction);
+        out.writeBoolean(false);
+    }
+
+
+    @Test
+    public void testLatticeCollector() {
+        DummySuspensionHook sh = new DummySuspensionHook();
+        Model m = new Model(sh, 1);
+
+        Neuron inA = m.createNeuron("A");
+        Neuron inB = m.createNeuron("B");
+        Neuron inC = m.createNeuron("C");
+
+        Neuron nAB = Neuron.init(m.createNeuron("AB"),
+                5.0,
+                INeuron.Type.EXCITATORY,
+                INeuron.LogicType.CONJUNCTIVE,
+                new Synapse.Builder()
+                        .setSynapseId(0)
+                        .setNeuron(inA)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .addRangeRelation(Relation.END_TO_BEGIN_EQUALS, 1)
+                        .setRangeOutput(true, false),
+                new Synapse.Builder()
+                        .setSynapseId(1)
+                        .setNeuron(inB)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .setRangeOutput(false, true)
+        );
+        int referencedNodeId = nAB.get().node.get().andParents.first().parent.id;
+
+        InputNode nA = inA.get().outputNode.get();
+        RangeRelation[] eq = new RangeRelation[] {new RangeRelation(Relation.EQUALS)};
+        int unreferencedNodeId1 = nA.extend(0, null, new Refinement(new RelationsMap(eq), inB.get().outputNode), null).child.id;
+        int unreferencedNodeId2 = nA.extend(0, null, new Refinement(new RelationsMap(eq), InputNode.add(m, inC.get()).provider), null).child.id;
+
+        m.suspendAll(Provider.SuspensionMode.SAVE);
+        Assert.assertTrue(sh.storage.containsKey(unreferencedNodeId1));
+
+        LatticeCollector lc = new LatticeCollector(m, 1);
+
+        // The unreferenced nodes are only marked as candidates in the first round.
+        Assert.assertEquals(0, lc.collect(1000));
+
+        m.createDocument("ab").clearActivations();
+
+        Assert.assertEquals(2, lc.collect(1000));
+        Assert.assertEquals(2, lc.numberOfReclaimedSuspendedNodes);
+        Assert.assertFalse(sh.storage.containsKey(unreferencedNodeId1));
+        Assert.assertFalse(sh.storage.containsKey(unreferencedNodeId2));
+        Assert.assertTrue(sh.storage.containsKey(referencedNodeId));
+
+        Document doc = m.createDocument("ab");
+        inA.addInput(doc, 0, 1);
+        inB.addInput(doc, 1, 2);
+        doc.process();
+
+        Assert.assertEquals(1, nAB.getActivations(doc, true).size());
+
+        doc.clearActivations();
+    }
+
+
+    @Test
+    public void testLatticeCollectorCountsSuspendedDescendants() {
+        DummySuspensionHook sh = new DummySuspensionHook();
+        Model m = new Model(sh, 1);
+
+        InputNode nA = InputNode.add(m, m.createNeuron("A").get());
+        InputNode nB = InputNode.add(m, m.createNeuron("B").get());
+        InputNode nC = InputNode.add(m, m.createNeuron("C").get());
+
+        RangeRelation eq = new RangeRelation(Relation.EQUALS);
+        AndNode nAB = nA.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq}), nB.provider), null).child.get();
+
+        PatternDiscovery.Config config = new PatternDiscovery.Config().setPatternCheck(n -> true);
+        AndNode nABC = nAB.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq, eq}), nC.provider), config).child.get();
+
+        m.suspendAll(Provider.SuspensionMode.SAVE);
+
+        LatticeCollector lc = new LatticeCollector(m, 1);
+        Assert.assertEquals(0, lc.collect(1000));
+
+        m.createDocument("abc").clearActivations();
+
+        // The suspended child ABC is reclaimed together with AB.
+        Assert.assertEquals(2, lc.collect(1000));
+        Assert.assertEquals(2, lc.numberOfReclaimedNodes);
+        Assert.assertEquals(2, lc.numberOfReclaimedSuspendedNodes);
+        Assert.assertFalse(sh.storage.containsKey(nAB.provider.id));
+        Assert.assertFalse(sh.storage.containsKey(nABC.provider.id));
+    }
+
+
+    @Test
+    public void testLatticeCollectorKeepsDescendantsInUse() {
+        DummySuspensionHook sh = new DummySuspensionHook();
+        Model m = new Model(sh, 1);
+
+        InputNode nA = InputNode.add(m, m.createNeuron("A").get());
+        InputNode nB = InputNode.add(m, m.createNeuron("B").get());
+        InputNode nC = InputNode.add(m, m.createNeuron("C").get());
+
+        RangeRelation eq = new RangeRelation(Relation.EQUALS);
+        AndNode nAB = nA.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq}), nB.provider), null).child.get();
+
+        PatternDiscovery.Config config = new PatternDiscovery.Config().setPatternCheck(n -> true);
+        AndNode nABC = nAB.extend(0, null, new Refinement(new RelationsMap(new RangeRelation[] {eq, eq}), nC.provider), config).child.get();
+        nABC.isDiscovered = true;
+
+        m.suspendAll(Provider.SuspensionMode.SAVE);
+
+        LatticeCollector lc = new LatticeCollector(m, 1);
+        Assert.assertEquals(0, lc.collect(1000));
+
+        m.createDocument("abc").clearActivations();
+
+        // The node AB is unreferenced, but it must not be removed together with its discovered child ABC.
+        Assert.assertEquals(0, lc.collect(1000));
+        Assert.assertTrue(sh.storage.containsKey(nAB.provider.id));
+        Assert.assertTrue(sh.storage.containsKey(nABC.provider.id));
+    }
+
+
+    @Test
+    public void testPatternInterningAfterReload() {
+        DummySuspensionHook sh = new DummySuspensionHook();
+        Model m = new Model(sh, 1);
+
+        Neuron inA = m.createNeuron("A");
+        Neuron inB = m.createNeuron("B");
+
+        InputNode nA = InputNode.add(m, inA.get());
+        RangeRelation[] eq = new RangeRelation[] {new RangeRelation(Relation.EQUALS)};
+        int nodeId = nA.extend(0, null, new Refinement(new RelationsMap(eq), InputNode.add(m, inB.get()).provider), null).child.id;
+        int inputNodeAId = nA.provider.id;
+
+        m.suspendAll(Provider.SuspensionMode.SAVE);
+        Assert.assertTrue(m.patterns.isEmpty());
+
+        Model m2 = new Model(sh, 1);
+        Assert.assertTrue(m2.patterns.isEmpty());
+
+        Provider<AndNode> p = m2.lookupNodeProvider(nodeId);
+        Assert.assertEquals(p.id, m2.patterns.get(p.get().getPatternKey()));
+
+        // The pattern key is stored with the node, hence its parents are not loaded.
+        Assert.assertTrue(m2.lookupNodeProvider(inputNodeAId).isSuspended());
+    }
+
+
+    @Test
+    public void testReadUnversionedAndNode() throws IOException {
+        DummySuspensionHook sh = new DummySuspensionHook();
+        Model m = new Model(sh, 1);
+
+        InputNode nA = InputNode.add(m, m.createNeuron("A").get());
+        RangeRelation[] eq = new RangeRelation[] {new RangeRelation(Relation.EQUALS)};
+        AndNode n = nA.extend(0, null, new Refinement(new RelationsMap(eq), InputNode.add(m, m.createNeuron("B").get()).provider), null).child.get();
+        PatternKey key = n.getPatternKey();
+
+        byte[] data = writeUnversionedAndNode(n);
+        m.suspendAll(Provider.SuspensionMode.SAVE);
+        sh.store(n.provider.id, data);
+
+        Model m2 = new Model(sh, 1);
+        Provider<AndNode> p = m2.lookupNodeProvider(n.provider.id);
+        Assert.assertEquals(0, key.compareTo(p.get().getPatternKey()));
+        Assert.assertEquals(p.id, m2.patterns.get(key));
+    }
+
+
+    /**
+     * The unversioned format lacks the version after the node flag and the pattern key at the end.
+     */
+    private static byte[] writeUnversionedAndNode(AndNode n) throws IOException {
+        ByteArrayOutputStream node = new ByteArrayOutputStream();
+        n.write(new DataOutputStream(node));
+        ByteArrayOutputStream key = new ByteArrayOutputStream();
+        n.getPatternKey().write(new DataOutputStream(key));
+
+        byte[] data = node.toByteArray();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(baos))) {
+            out.write(data, 0, 1);
+            out.write(data, 2, data.length - 2 - key.size());
+        }
+        return baos.toByteArray();
+    }
+
+
+    @Test
+    public void testLatticeCompactor() {
+        DummySuspensionHook sh = new DummySuspensionHook();
+        Model m = new Model(sh, 1);
+
+        Neuron inA = m.createNeuron("A");
+        Neuron inB = m.createNeuron("B");
+        Neuron inC = m.createNeuron("C");
+
+        Neuron nAB = Neuron.init(m.createNeuron("AB"),
+                5.0,
+                INeuron.Type.EXCITATORY,
+                INeuron.LogicType.CONJUNCTIVE,
+                new Synapse.Builder()
+                        .setSynapseId(0)
+                        .setNeuron(inA)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .addRangeRelation(Relation.END_TO_BEGIN_EQUALS, 1)
+                        .setRangeOutput(true, false),
+                new Synapse.Builder()
+                        .setSynapseId(1)
+                        .setNeuron(inB)
+                        .setWeight(10.0)
+                        .setBias(-10.0)
+                        .setRangeOutput(false, true)
+        );
+        int referencedNodeId = nAB.get().node.get().andParents.first().parent.id;
+        int inputNodeAId = inA.get().outputNode.id;
+
+        InputNode nA = inA.get().outputNode.get();
+        RangeRelation[] eq = new RangeRelation[] {new RangeRelation(Relation.EQUALS)};
+        nA.extend(0, null, new Refinement(new RelationsMap(eq), inB.get().outputNode), null);
+        nA.extend(0, null, new Refinement(new RelationsMap(eq), InputNode.add(m, inC.get()).provider), null);
+
+        m.suspendAll(Provider.SuspensionMode.SAVE);
+
+        int inAId = inA.id;
+        int inBId = inB.id;
+        int nABId = nAB.id;
+        int numberOfStoredProviders = sh.storage.size();
+
+        DummySuspensionHook target = new DummySuspensionHook();
+        LatticeCompactor.Result result = LatticeCompactor.compact(m, target, 2);
+
+        Assert.assertEquals(2, result.numberOfRemovedNodes);
+        Assert.assertEquals(numberOfStoredProviders - 2, target.storage.size());
+        Assert.assertEquals(numberOfStoredProviders - 2, sh.storage.size());
+        Assert.assertTrue(m.activeProviders.isEmpty());
+        Assert.assertEquals(target.storage.size(), (int) ((TreeMap<Integer, byte[]>) target.storage).lastKey());
+
+        int pos = result.idMapping.get(inputNodeAId) - result.ids[0];
+        Assert.assertArrayEquals(new int[] {result.idMapping.get(referencedNodeId)}, result.children[pos]);
+
+        // The ids of the source model are unchanged, hence it may still be used.
+        Assert.assertEquals(1, processAB(m, inA, inB, nAB));
+
+        Model m2 = new Model(target, 1);
+        Neuron inA2 = m2.lookupNeuron(result.idMapping.get(inAId));
+        Neuron inB2 = m2.lookupNeuron(result.idMapping.get(inBId));
+        Neuron nAB2 = m2.lookupNeuron(result.idMapping.get(nABId));
+
+        Assert.assertEquals(1, processAB(m2, inA2, inB2, nAB2));
+
+        // The stored pattern key has been translated to the new ids.
+        AndNode referencedNode = m2.<Provider<AndNode>>lookupNodeProvider(result.idMapping.get(referencedNodeId)).get();
+        Assert.assertEquals(0, referencedNode.getPatternKey().compareTo(PatternKey.create(referencedNode.level, referencedNode.parents)));
+    }
+
+
+    private int processAB(Model m, Neuron inA, Neuron inB, Neuron nAB) {
+        Document doc = m.createDocument("ab");
+        inA.addInput(doc, 0, 1);
+        inB.addInput(doc, 1, 2);
+        doc.process();
+
+        int numberOfActivations = nAB.getActivations(doc, true).size();
+        doc.clearActivations();
+        return numberOfActivations;
+    }
+
 
     public static class DummySuspensionHook implements SuspensionHook {
         public AtomicInteger currentId = new AtomicInteger(0);
@@ -151,5 +645,10 @@ public class SuspensionTest {
         public Iterable<Integer> getAllNodeIds() {
             return storage.keySet();
         }
+
+        @Override
+        public void remove(int id) {
+            storage.remove(id);
+        }
     }
 }
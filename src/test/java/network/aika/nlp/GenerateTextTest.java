@@ -179,6 +179,7 @@ public class GenerateTextTest {
         System.out.println(outputText);
 
         Assert.assertEquals("bbb ddddd ", outputText);
+        Assert.assertEquals("Bla", doc.getContent());
 
 
         System.out.println(doc.activationsToString(true, true, true));